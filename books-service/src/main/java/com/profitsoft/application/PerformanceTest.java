@@ -1,16 +1,28 @@
 package com.profitsoft.application;
 
 import com.profitsoft.application.service.StatisticsService;
+import com.profitsoft.application.service.StatisticsService.ExecutorMode;
 import com.profitsoft.application.utils.BookJsonParser;
+import com.profitsoft.application.utils.ByteRange;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Performance testing script to compare execution times with different thread counts.
@@ -19,10 +31,27 @@ import java.util.List;
 @Slf4j
 public class PerformanceTest {
 
-    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    /**
+     * 8..32 threads show how the per-thread aggregation scales once workers outnumber the hot keys.
+     * {@link StatisticsService} caps platform threads at 2x available processors, so counts above that
+     * are measured once, at the cap, and the rest are skipped.
+     */
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 24, 32};
     private static final int WARMUP_RUNS = 2;
     private static final int TEST_RUNS = 5;
 
+    /**
+     * Virtual threads are limited to this many files at once; platform threads use 2x available processors.
+     */
+    private static final int VIRTUAL_CONCURRENCY = 64;
+    /**
+     * Delay per read of up to {@link #SLOW_IO_BLOCK_BYTES}, standing in for a network file system.
+     */
+    private static final long SLOW_IO_LATENCY_MS = 5;
+    private static final int SLOW_IO_BLOCK_BYTES = 64 * 1024;
+    private static final long READ_AHEAD_BYTES = 64L * 1024 * 1024;
+    private static final int READER_THREADS = 4;
+
     public static void main(String[] args) {
         if (args.length < 2) {
             log.error("Usage: java PerformanceTest <directory> <attribute>");
@@ -42,15 +71,29 @@ public class PerformanceTest {
         log.info("PERFORMANCE TEST");
         log.info("Directory: {}", dirPath);
         log.info("Attribute: {}", attribute);
+        log.info("Available processors: {}", Runtime.getRuntime().availableProcessors());
         log.info("Warmup runs: {}", WARMUP_RUNS);
         log.info("Test runs per configuration: {}", TEST_RUNS);
         log.info("=".repeat(80));
 
         List<PerformanceResult> results = new ArrayList<>();
+        int threadCap = Runtime.getRuntime().availableProcessors() * 2;
+        Set<Integer> measured = new LinkedHashSet<>();
 
-        for (int threadCount : THREAD_COUNTS) {
+        for (int requested : THREAD_COUNTS) {
+            int threadCount = Math.min(requested, threadCap);
+            if (!measured.add(threadCount)) {
+                log.info("Skipping {} threads: capped at {} threads, which was already measured", requested,
+                        threadCap);
+                continue;
+            }
             log.info("\n{}", "-".repeat(80));
-            log.info("Testing with {} thread(s)", threadCount);
+            if (threadCount < requested) {
+                log.info("Testing with {} thread(s) ({} requested, capped at 2x available processors)",
+                        threadCount, requested);
+            } else {
+                log.info("Testing with {} thread(s)", threadCount);
+            }
             log.info("-".repeat(80));
 
             log.info("Warming up...");
@@ -78,7 +121,7 @@ public class PerformanceTest {
             long maxTotal = times.stream().mapToLong(Long::longValue).max().orElse(0);
 
             results.add(new PerformanceResult(
-                    threadCount, avgTotal, minTotal, maxTotal,
+                    threadCount, threadCount < requested, avgTotal, minTotal, maxTotal,
                     avgParsing, avgXml));
 
             log.info("Average total time: {} ms", avgTotal);
@@ -97,8 +140,8 @@ public class PerformanceTest {
         long baselineTime = results.getFirst().avgTime;
         for (PerformanceResult result : results) {
             double speedup = (double) baselineTime / result.avgTime;
-            log.info(String.format("%-10d | %-12d | %-12d | %-12d | %.2fx",
-                    result.threads, result.avgTime, result.minTime,
+            log.info(String.format("%-10s | %-12d | %-12d | %-12d | %.2fx",
+                    result.label(), result.avgTime, result.minTime,
                     result.maxTime, speedup));
         }
 
@@ -108,8 +151,8 @@ public class PerformanceTest {
                 "Threads", "Parsing(ms)", "XML(ms)"));
         log.info("-".repeat(80));
         for (PerformanceResult result : results) {
-            log.info(String.format("%-10d | %-12d | %-12d",
-                    result.threads, result.avgParsing, result.avgXml));
+            log.info(String.format("%-10s | %-12d | %-12d",
+                    result.label(), result.avgParsing, result.avgXml));
         }
         log.info("=".repeat(80));
 
@@ -122,13 +165,135 @@ public class PerformanceTest {
 
         double efficiency = (double) baselineTime / (best.threads * best.avgTime);
         log.info("Parallel efficiency: {}%", Math.round(efficiency * 100));
+
+        compareExecutors(dirPath.toFile(), attribute);
+        compareParsers(dirPath, attribute);
+    }
+
+    /**
+     * Platform pool, virtual threads and the platform pool with a read-ahead stage,
+     * on local storage and on a throttled stand-in for slow storage.
+     */
+    private static void compareExecutors(File directory, String attribute) {
+        int platformThreads = Runtime.getRuntime().availableProcessors() * 2;
+        Map<String, Consumer<StatisticsService>> setups = new LinkedHashMap<>();
+        setups.put("platform", service -> service.setExecutorMode(ExecutorMode.PLATFORM));
+        setups.put("virtual", service -> {
+            service.setExecutorMode(ExecutorMode.VIRTUAL);
+            service.setDetectPinnedThreads(true);
+        });
+        setups.put("read-ahead", service -> {
+            service.setReadAheadBytes(READ_AHEAD_BYTES);
+            service.setReaderThreads(READER_THREADS);
+        });
+
+        log.info("\n{}", "=".repeat(80));
+        log.info("EXECUTOR COMPARISON (slow I/O: {} ms per {} KiB read)",
+                SLOW_IO_LATENCY_MS, SLOW_IO_BLOCK_BYTES / 1024);
+        log.info("=".repeat(80));
+        log.info(String.format("%-8s | %-10s | %-12s | %-12s | %-10s",
+                "Storage", "Executor", "Concurrency", "Avg Time(ms)", "Pinned"));
+        log.info("-".repeat(80));
+
+        for (boolean slow : new boolean[]{false, true}) {
+            for (Map.Entry<String, Consumer<StatisticsService>> setup : setups.entrySet()) {
+                int threads = setup.getKey().equals("virtual") ? VIRTUAL_CONCURRENCY : platformThreads;
+                BookJsonParser parser = slow ? new ThrottledBookJsonParser() : new BookJsonParser();
+                runTest(directory, attribute, threads, parser, setup.getValue(), false);
+
+                long totalTime = 0;
+                long pinned = 0;
+                for (int i = 0; i < TEST_RUNS; i++) {
+                    var result = runTest(directory, attribute, threads, parser, setup.getValue(), false);
+                    totalTime += result.totalTimeMs();
+                    pinned += result.pinnedThreadEvents();
+                }
+                log.info(String.format("%-8s | %-10s | %-12d | %-12d | %-10d",
+                        slow ? "slow" : "local", setup.getKey(), threads, totalTime / TEST_RUNS, pinned));
+            }
+        }
+        log.info("=".repeat(80));
+    }
+
+    /**
+     * Single-threaded parse of every file: Jackson entities ({@code parseFile}), the Jackson projection
+     * scan and the structural-index projection scan, each through read calls and through memory mappings.
+     */
+    private static void compareParsers(Path directory, String attribute) {
+        List<Path> files;
+        long totalBytes = 0;
+        try (var stream = Files.list(directory)) {
+            files = stream.filter(f -> f.toString().endsWith(".json")).sorted().toList();
+            for (Path file : files) totalBytes += Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Set<String> attributes = Set.of(attribute);
+        BookJsonParser jackson = new BookJsonParser();
+        BookJsonParser indexed = new BookJsonParser();
+        indexed.setScanBackend(BookJsonParser.ScanBackend.STRUCTURAL_INDEX);
+
+        Map<String, FileParse> parsers = new LinkedHashMap<>();
+        for (boolean mapped : new boolean[]{false, true}) {
+            String suffix = mapped ? "/mmap" : "";
+            parsers.put("parseFile" + suffix, (file, books) -> {
+                jackson.setMemoryMapped(mapped);
+                jackson.parseFile(file, book -> books[0]++);
+            });
+            parsers.put("scan/jackson" + suffix, (file, books) -> {
+                jackson.setMemoryMapped(mapped);
+                jackson.scanFileFields(file, null, attributes, fields -> books[0]++);
+            });
+            parsers.put("scan/indexed" + suffix, (file, books) -> {
+                indexed.setMemoryMapped(mapped);
+                indexed.scanFileFields(file, null, attributes, fields -> books[0]++);
+            });
+        }
+
+        log.info("\n{}", "=".repeat(80));
+        log.info("PARSER COMPARISON ({} files, {} MiB, 1 thread)", files.size(), totalBytes / (1024 * 1024));
+        log.info("=".repeat(80));
+        log.info(String.format("%-19s | %-12s | %-12s | %-10s", "Parser", "Books", "Avg Time(ms)", "MiB/s"));
+        log.info("-".repeat(80));
+        for (Map.Entry<String, FileParse> parser : parsers.entrySet()) {
+            long[] books = new long[1];
+            long totalTime = 0;
+            for (int run = 0; run < WARMUP_RUNS + TEST_RUNS; run++) {
+                books[0] = 0;
+                long start = System.nanoTime();
+                for (Path file : files) {
+                    try {
+                        parser.getValue().parse(file, books);
+                    } catch (IOException | RuntimeException e) {
+                        log.debug("Skipped {}: {}", file, e.getMessage());
+                    }
+                }
+                if (run >= WARMUP_RUNS) totalTime += System.nanoTime() - start;
+            }
+            long avgMs = Math.max(1, totalTime / TEST_RUNS / 1_000_000);
+            log.info(String.format("%-19s | %-12d | %-12d | %-10.1f", parser.getKey(), books[0], avgMs,
+                    totalBytes / (1024.0 * 1024) * 1000 / avgMs));
+        }
+        log.info("=".repeat(80));
+    }
+
+    @FunctionalInterface
+    private interface FileParse {
+        void parse(Path file, long[] books) throws IOException;
     }
 
     private static StatisticsService.StatisticsResult runTest(
             File directory, String attribute, int threads, boolean logDetails) {
+        return runTest(directory, attribute, threads, new BookJsonParser(), service -> { }, logDetails);
+    }
+
+    private static StatisticsService.StatisticsResult runTest(File directory, String attribute, int threads,
+                                                              BookJsonParser parser,
+                                                              Consumer<StatisticsService> setup,
+                                                              boolean logDetails) {
         try {
-            BookJsonParser parser = new BookJsonParser();
             StatisticsService service = new StatisticsService(parser);
+            setup.accept(service);
 
             long startTime = System.currentTimeMillis();
             var result = service.processDirectory(directory, attribute, threads);
@@ -146,12 +311,48 @@ public class PerformanceTest {
         }
     }
 
+    /**
+     * Sleeps before every read and returns at most {@link #SLOW_IO_BLOCK_BYTES} per call.
+     */
+    private static final class ThrottledBookJsonParser extends BookJsonParser {
+        @Override
+        protected InputStream open(Path file, ByteRange range) throws IOException {
+            return new FilterInputStream(super.open(file, range)) {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        Thread.sleep(SLOW_IO_LATENCY_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttling");
+                    }
+                    return super.read(b, off, Math.min(len, SLOW_IO_BLOCK_BYTES));
+                }
+            };
+        }
+    }
+
+    /**
+     * @param threads threads actually used
+     * @param capped  whether more threads were requested than {@link StatisticsService} allows
+     */
     private record PerformanceResult(
             int threads,
+            boolean capped,
             long avgTime,
             long minTime,
             long maxTime,
             long avgParsing,
             long avgXml
-    ) {}
+    ) {
+        String label() {
+            return capped ? threads + " (cap)" : String.valueOf(threads);
+        }
+    }
 }
\ No newline at end of file
@@ -1,7 +1,10 @@
 package com.profitsoft.application.cli;
 
 
+import com.profitsoft.application.service.BookFilter;
+import com.profitsoft.application.service.PivotSpec;
 import com.profitsoft.application.service.StatisticsService;
+import com.profitsoft.application.service.StatisticsWatcher;
 import com.profitsoft.application.utils.BookJsonParser;
 import com.profitsoft.application.utils.ResultPrinter;
 import lombok.extern.slf4j.Slf4j;
@@ -11,8 +14,14 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * Old main application entry point.
@@ -23,16 +32,79 @@ public class OldApplication {
 
     private static final String USAGE = """
             OPTIONS:
-              --dir <path>       Path to directory with JSON files (required)
-              --attribute <name> Attribute: title, author, year_published, genre (required)
+              --dir <path>       Path to directory with JSON files (required); .json.gz, .json.zst and .zip
+                                 archives of JSON files are read without unpacking; .ndjson/.jsonl
+                                 files hold one book per line
+              --recursive        Also read files in subdirectories of --dir (optional)
+              --include <glob>   Only read files matching the glob; matched against the path relative to
+                                 --dir if it contains '/', else against the file name (optional)
+              --filter <condition>
+                                 Count only books matching the condition, e.g. "year_published >= 2000",
+                                 "author in (Poe, Shelley)" or "genre contains fantasy"; may be repeated,
+                                 all conditions must hold; fastest with --projection (optional)
+              --sample <fraction>
+                                 Quick preview: parse about this fraction (0-1) of the files and chunks and
+                                 extrapolate the counts with 95% confidence intervals (optional)
+              --sample-seed <n>  Seed of the --sample draw (optional, default: 0)
+              --time-limit <seconds>
+                                 Stop after this many seconds and report the counts aggregated so far,
+                                 marked as partial, with the share of files and bytes done (optional)
+              --attribute <name> Attribute(s): title, author, year_published, genre, genre_pair (required);
+                                 a comma-separated list is computed in one pass, one XML file per attribute;
+                                 genre_pair counts the pairs of genres that occur in the same book
+              --pivot "<rows> x <columns>"
+                                 Count books per combination of two attributes, e.g. "author x genre" or
+                                 "genre x decade(year_published)"; years can also be bucketed with
+                                 century(year_published) or bucket(year_published, <size>). Written as a
+                                 pivot XML file and a CSV file; may be repeated, --attribute is then
+                                 optional (optional)
+              --aggregate <list> Also compute per title, author or genre value: year (min/max/mean
+                                 year_published), distinct_authors; comma-separated (optional)
               --threads <count>  Number of threads (optional, default: 4)
-            Usage: java -jar book-statistics.jar --dir <path> --attribute <name> [--threads <count>]
-            Supported attributes: title, author, year_published, genre
+              --projection       Read only the requested attribute instead of full books (optional)
+              --indexed-scan     Experimental: read the projected attributes with the structural-index scanner
+                                 instead of Jackson; implies --projection (optional)
+              --mmap             Read input files through memory mappings instead of read calls; fastest for
+                                 files already in the page cache (optional)
+              --cache-dir <path> Keep per-file results here and re-parse only new or changed files (optional)
+              --watch            Keep running, re-parse created/modified files and rewrite the XML; counts
+                                 exactly on the heap (optional)
+              --debounce-ms <ms> Quiet period before a changed file is parsed in watch mode (optional, default: 2000)
+              --top-k-memory-mb <mb>
+                                 Count only the most frequent values within this memory budget; counts become
+                                 approximate and their error bound is printed (optional, default: exact counts)
+              --distinct-only    Only estimate the number of distinct values, without listing them (optional)
+              --virtual-threads  Run one virtual thread per file, at most --threads at once and not capped
+                                 by the processor count; for network or slow storage (optional)
+              --detect-pinning   With --virtual-threads, report virtual threads pinned to their carrier (optional)
+              --off-heap         Keep exact counts outside the Java heap; size -XX:MaxDirectMemorySize
+                                 for the number of distinct values (optional)
+              --spill-threshold <keys>
+                                 Spill exact counts to sorted temp files once a worker holds this many distinct
+                                 values, for data with more distinct values than fit in memory (optional)
+              --spill-dir <path> Directory for spill files (optional, default: system temp directory)
+              --read-ahead-mb <mb>
+                                 Read files on dedicated reader threads ahead of parsing, holding at most
+                                 this much read-ahead data (optional, default: read while parsing)
+              --reader-threads <count>
+                                 Reader threads for --read-ahead-mb (optional, default: 2)
+            Usage: java -jar book-statistics.jar --dir <path> --attribute <name> [--threads <count>] [--projection]
+                   [--indexed-scan] [--mmap] [--recursive] [--include <glob>] [--filter <condition>]...
+                   [--sample <fraction> [--sample-seed <n>]] [--time-limit <seconds>] [--aggregate <list>]
+                   [--pivot "<rows> x <columns>"]...
+                   [--cache-dir <path>] [--watch [--debounce-ms <ms>]] [--top-k-memory-mb <mb>]
+                   [--distinct-only] [--off-heap]
+                   [--spill-threshold <keys> [--spill-dir <path>]] [--virtual-threads [--detect-pinning]]
+                   [--read-ahead-mb <mb> [--reader-threads <count>]]
+            Supported attributes: title, author, year_published, genre, genre_pair
             Example:
               java -jar book-statistics.jar --dir ./books --attribute genre --threads 4
+              java -jar book-statistics.jar --dir ./books --attribute title,author,year_published,genre
+              java -jar book-statistics.jar --dir ./books --attribute genre --aggregate year,distinct_authors
+              java -jar book-statistics.jar --dir ./books --pivot "genre x decade(year_published)"
             """;
 
-    private static final List<String> SUPPORTED = List.of("title", "author", "year_published", "genre");
+    private static final List<String> SUPPORTED = List.of("title", "author", "year_published", "genre", "genre_pair");
 
     public static void main(String[] args) {
         ApplicationConfig cfg = parseArguments(args);
@@ -49,11 +121,55 @@ public class OldApplication {
 
         try {
             BookJsonParser parser = new BookJsonParser();
+            if (cfg.indexedScan()) {
+                parser.setScanBackend(BookJsonParser.ScanBackend.STRUCTURAL_INDEX);
+            }
+            parser.setMemoryMapped(cfg.memoryMapped());
             StatisticsService service = new StatisticsService(parser);
+            service.setProjection(cfg.projection());
+            service.setDistinctCountOnly(cfg.distinctOnly());
+            service.setOffHeap(cfg.offHeap());
+            service.setSpillThreshold(cfg.spillThreshold());
+            if (cfg.spillDir() != null) {
+                service.setSpillDirectory(Paths.get(cfg.spillDir()).toFile());
+            }
+            service.setReadAheadBytes(cfg.readAheadMb() * 1024 * 1024);
+            service.setReaderThreads(cfg.readerThreads());
+            service.setRecursive(cfg.recursive());
+            if (cfg.include() != null) {
+                service.setInputGlob(cfg.include());
+            }
+            if (!cfg.filters().isEmpty()) {
+                service.setFilter(BookFilter.parse(cfg.filters()));
+            }
+            service.setAggregations(cfg.aggregations());
+            service.setSampleFraction(cfg.sampleFraction());
+            service.setSampleSeed(cfg.sampleSeed());
+            if (cfg.virtualThreads()) {
+                service.setExecutorMode(StatisticsService.ExecutorMode.VIRTUAL);
+                service.setDetectPinnedThreads(cfg.detectPinning());
+            }
+            if (cfg.cacheDir() != null) {
+                service.setCacheDirectory(Paths.get(cfg.cacheDir()).toFile());
+            }
+            if (cfg.topKMemoryMb() > 0) {
+                service.setHeavyHitterCapacity(StatisticsService.heavyHitterCapacityFor(
+                        cfg.topKMemoryMb() * 1024 * 1024, cfg.threadCount(), cfg.attributes().size()));
+            }
+            if (cfg.watch()) {
+                StatisticsWatcher watcher = new StatisticsWatcher(service, dirPath.toFile(), cfg.attributes(),
+                        Duration.ofMillis(cfg.debounceMs()), cfg.threadCount());
+                Runtime.getRuntime().addShutdownHook(new Thread(watcher::close));
+                watcher.run();
+                return;
+            }
             long startTime = System.currentTimeMillis();
-            var result = service.processDirectory(dirPath.toFile(), cfg.attribute(), cfg.threadCount());
+            Instant deadline = cfg.timeLimitSeconds() > 0
+                    ? Instant.ofEpochMilli(startTime).plusSeconds(cfg.timeLimitSeconds())
+                    : null;
+            var results = service.processDirectory(dirPath.toFile(), cfg.attributes(), cfg.threadCount(), deadline);
             long endTime = System.currentTimeMillis();
-            ResultPrinter.print(result);
+            results.values().forEach(ResultPrinter::print);
             log.info("Total execution time: {} ms", endTime - startTime);
         } catch (Exception e) {
             log.error("Error occurred during processing: {}", e.getMessage());
@@ -68,6 +184,29 @@ public class OldApplication {
         String dir = null;
         String attr = null;
         int threads = 4;
+        boolean projection = false;
+        boolean indexedScan = false;
+        boolean memoryMapped = false;
+        String cacheDir = null;
+        boolean watch = false;
+        long debounceMs = 2000;
+        long topKMemoryMb = 0;
+        boolean distinctOnly = false;
+        boolean offHeap = false;
+        long spillThreshold = 0;
+        String spillDir = null;
+        boolean virtualThreads = false;
+        boolean detectPinning = false;
+        long readAheadMb = 0;
+        int readerThreads = 2;
+        boolean recursive = false;
+        String include = null;
+        List<String> filters = new ArrayList<>();
+        List<String> pivots = new ArrayList<>();
+        double sampleFraction = 0;
+        long timeLimitSeconds = 0;
+        Set<StatisticsService.Aggregation> aggregations = EnumSet.noneOf(StatisticsService.Aggregation.class);
+        long sampleSeed = 0;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -98,6 +237,178 @@ public class OldApplication {
                         return null;
                     }
                 }
+                case "--projection" -> projection = true;
+                case "--indexed-scan" -> {
+                    indexedScan = true;
+                    projection = true;
+                }
+                case "--cache-dir" -> {
+                    if (i + 1 < args.length) cacheDir = args[++i];
+                    else {
+                        log.error("--cache-dir requires value");
+                        return null;
+                    }
+                }
+                case "--mmap" -> memoryMapped = true;
+                case "--recursive" -> recursive = true;
+                case "--filter" -> {
+                    if (i + 1 < args.length) filters.add(args[++i]);
+                    else {
+                        log.error("--filter requires value");
+                        return null;
+                    }
+                }
+                case "--sample" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            sampleFraction = Double.parseDouble(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid sample");
+                            return null;
+                        }
+                    } else {
+                        log.error("--sample requires value");
+                        return null;
+                    }
+                }
+                case "--sample-seed" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            sampleSeed = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid sample-seed");
+                            return null;
+                        }
+                    } else {
+                        log.error("--sample-seed requires value");
+                        return null;
+                    }
+                }
+                case "--pivot" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            pivots.add(PivotSpec.parse(args[++i]).name());
+                        } catch (IllegalArgumentException ex) {
+                            log.error(ex.getMessage());
+                            return null;
+                        }
+                    } else {
+                        log.error("--pivot requires value");
+                        return null;
+                    }
+                }
+                case "--aggregate" -> {
+                    if (i + 1 < args.length) {
+                        for (String name : parseAttributes(args[++i])) {
+                            try {
+                                aggregations.add(StatisticsService.Aggregation.valueOf(name.toUpperCase()));
+                            } catch (IllegalArgumentException ex) {
+                                log.error("Unsupported aggregation: {}", name);
+                                return null;
+                            }
+                        }
+                    } else {
+                        log.error("--aggregate requires value");
+                        return null;
+                    }
+                }
+                case "--time-limit" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            timeLimitSeconds = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid time-limit");
+                            return null;
+                        }
+                    } else {
+                        log.error("--time-limit requires value");
+                        return null;
+                    }
+                }
+                case "--include" -> {
+                    if (i + 1 < args.length) include = args[++i];
+                    else {
+                        log.error("--include requires value");
+                        return null;
+                    }
+                }
+                case "--watch" -> watch = true;
+                case "--distinct-only" -> distinctOnly = true;
+                case "--off-heap" -> offHeap = true;
+                case "--spill-threshold" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            spillThreshold = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid spill-threshold");
+                            return null;
+                        }
+                    } else {
+                        log.error("--spill-threshold requires value");
+                        return null;
+                    }
+                }
+                case "--spill-dir" -> {
+                    if (i + 1 < args.length) spillDir = args[++i];
+                    else {
+                        log.error("--spill-dir requires value");
+                        return null;
+                    }
+                }
+                case "--read-ahead-mb" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            readAheadMb = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid read-ahead-mb");
+                            return null;
+                        }
+                    } else {
+                        log.error("--read-ahead-mb requires value");
+                        return null;
+                    }
+                }
+                case "--reader-threads" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            readerThreads = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid reader-threads");
+                            return null;
+                        }
+                    } else {
+                        log.error("--reader-threads requires value");
+                        return null;
+                    }
+                }
+                case "--virtual-threads" -> virtualThreads = true;
+                case "--detect-pinning" -> detectPinning = true;
+                case "--debounce-ms" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            debounceMs = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid debounce-ms");
+                            return null;
+                        }
+                    } else {
+                        log.error("--debounce-ms requires value");
+                        return null;
+                    }
+                }
+                case "--top-k-memory-mb" -> {
+                    if (i + 1 < args.length) {
+                        try {
+                            topKMemoryMb = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException ex) {
+                            log.error("Invalid top-k-memory-mb");
+                            return null;
+                        }
+                    } else {
+                        log.error("--top-k-memory-mb requires value");
+                        return null;
+                    }
+                }
                 default -> {
                     log.error("Unknown arg: {}", args[i]);
                     return null;
@@ -105,40 +416,123 @@ public class OldApplication {
             }
         }
 
-        if (dir == null || attr == null) {
+        if (dir == null || attr == null && pivots.isEmpty()) {
             log.error("Missing --dir or --attribute");
             return null;
         }
-        String aNorm = attr.toLowerCase();
-        if (!SUPPORTED.contains(aNorm)) {
-            log.error("Unsupported attribute: {}", attr);
+        List<String> attributes = new ArrayList<>(attr != null ? parseAttributes(attr) : List.of());
+        if (attributes.isEmpty() && pivots.isEmpty()) {
+            log.error("Missing --attribute");
+            return null;
+        }
+        for (String a : attributes) {
+            if (!SUPPORTED.contains(a)) {
+                log.error("Unsupported attribute: {}", a);
+                return null;
+            }
+        }
+        if (debounceMs < 0) {
+            log.error("debounce-ms must be >=0");
+            return null;
+        }
+        if (topKMemoryMb < 0) {
+            log.error("top-k-memory-mb must be >=0");
+            return null;
+        }
+        if (spillThreshold < 0) {
+            log.error("spill-threshold must be >=0");
+            return null;
+        }
+        if (readAheadMb < 0) {
+            log.error("read-ahead-mb must be >=0");
+            return null;
+        }
+        if (readerThreads < 1) {
+            log.error("reader-threads must be >=1");
+            return null;
+        }
+        if (!(sampleFraction >= 0 && sampleFraction <= 1)) {
+            log.error("sample must be between 0 and 1");
+            return null;
+        }
+        if (timeLimitSeconds < 0) {
+            log.error("time-limit must be >=0");
+            return null;
+        }
+        if (watch && (topKMemoryMb > 0 || distinctOnly || offHeap || spillThreshold > 0)) {
+            // The watcher keeps exact heap counts per file so that changed files can be subtracted
+            log.error("--top-k-memory-mb, --distinct-only, --off-heap and --spill-threshold cannot be used with --watch");
+            return null;
+        }
+        if (watch && (recursive || include != null)) {
+            log.error("--recursive and --include cannot be used with --watch");
+            return null;
+        }
+        if (sampleFraction > 0 && watch) {
+            log.error("--sample cannot be used with --watch");
+            return null;
+        }
+        if (!pivots.isEmpty() && watch) {
+            log.error("--pivot cannot be used with --watch");
+            return null;
+        }
+        if (timeLimitSeconds > 0 && watch) {
+            log.error("--time-limit cannot be used with --watch");
+            return null;
+        }
+        if (!aggregations.isEmpty() && watch) {
+            log.error("--aggregate cannot be used with --watch");
             return null;
         }
         if (threads < 1) {
             log.error("threads must be >=1");
             return null;
         }
+        if (!filters.isEmpty()) {
+            try {
+                BookFilter.parse(filters);
+            } catch (IllegalArgumentException ex) {
+                log.error(ex.getMessage());
+                return null;
+            }
+        }
+
+        attributes.addAll(pivots);
 
         int maxThreads = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
-        if (threads > maxThreads) {
+        if (!virtualThreads && threads > maxThreads) {
             log.warn("threads capped to {}", maxThreads);
             threads = maxThreads;
         }
 
-        return new ApplicationConfig(dir, aNorm, threads);
+        return new ApplicationConfig(dir, List.copyOf(attributes), threads, projection, cacheDir, watch, debounceMs,
+                topKMemoryMb, distinctOnly, virtualThreads, detectPinning,
+                readAheadMb, readerThreads, offHeap, spillThreshold, spillDir, indexedScan,
+                memoryMapped, recursive, include, List.copyOf(filters), sampleFraction, sampleSeed,
+                timeLimitSeconds, Set.copyOf(aggregations));
+    }
+
+    private static List<String> parseAttributes(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(a -> !a.isEmpty())
+                .map(String::toLowerCase)
+                .distinct()
+                .toList();
     }
 
     private static ApplicationConfig interactivePrompt() {
         try (Scanner sc = new Scanner(System.in)) {
             log.info("Directory path: ");
             String dir = sc.nextLine().trim();
-            log.info("Attribute (title/author/year_published/genre): ");
+            log.info("Attribute(s), comma-separated (title/author/year_published/genre/genre_pair): ");
             String attr = sc.nextLine().trim();
             log.info("Threads (default 4): ");
             String th = sc.nextLine().trim();
             int threads = 4;
             if (!th.isBlank()) threads = Integer.parseInt(th);
-            return new ApplicationConfig(dir, attr.toLowerCase(), threads);
+            return new ApplicationConfig(dir, parseAttributes(attr), threads, false, null, false, 2000,
+                    0, false, false, false, 0, 2, false, 0, null, false, false, false, null, List.of(), 0, 0, 0, Set.of());
         } catch (Exception e) {
             log.error("Input error: {}", e.getMessage());
             return null;
@@ -146,6 +540,12 @@ public class OldApplication {
     }
 }
 
-record ApplicationConfig(String directory, String attribute, int threadCount) {
+record ApplicationConfig(String directory, List<String> attributes, int threadCount, boolean projection,
+                         String cacheDir, boolean watch, long debounceMs, long topKMemoryMb,
+                         boolean distinctOnly, boolean virtualThreads, boolean detectPinning,
+                         long readAheadMb, int readerThreads, boolean offHeap, long spillThreshold,
+                         String spillDir, boolean indexedScan, boolean memoryMapped, boolean recursive,
+                         String include, List<String> filters, double sampleFraction, long sampleSeed,
+                         long timeLimitSeconds, Set<StatisticsService.Aggregation> aggregations) {
 }
 
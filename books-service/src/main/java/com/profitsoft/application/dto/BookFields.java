@@ -0,0 +1,17 @@
+package com.profitsoft.application.dto;
+
+import com.profitsoft.application.entities.Book;
+
+import java.util.List;
+
+/**
+ * Lightweight projection of the book attributes used for statistics.
+ * When produced by the projection scanner only the requested attributes are populated,
+ * the remaining components are {@code null}.
+ */
+public record BookFields(String title, String author, Integer yearPublished, List<String> genres) {
+
+    public static BookFields from(Book book) {
+        return new BookFields(book.getTitle(), book.getAuthorName(), book.getYearPublished(), book.getGenres());
+    }
+}
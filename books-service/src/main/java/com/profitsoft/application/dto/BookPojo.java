@@ -46,6 +46,9 @@ public class BookPojo {
                 return ((Number) id).longValue();
             }
         }
+        if (author instanceof AuthorRef ref && ref.id() instanceof Number id) {
+            return id.longValue();
+        }
         return null;
     }
 
@@ -55,6 +58,16 @@ public class BookPojo {
             Object name = ((Map<?, ?>) author).get("name");
             return name != null ? name.toString() : null;
         }
+        if (author instanceof AuthorRef ref) {
+            return ref.name() != null ? ref.name().toString() : null;
+        }
         return author.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * The {@code id} and {@code name} of an author object, as read by the streaming decoder
+     * instead of a map of all its fields.
+     */
+    public record AuthorRef(Object id, Object name) {
+    }
+}
@@ -15,6 +15,24 @@ public class StatisticsItem implements Comparable<StatisticsItem> {
 
     private String value;
     private long count;
+    /**
+     * Bounds of the 95% confidence interval of a count extrapolated from a sample; both zero when
+     * the count is exact.
+     */
+    private long lowerBound;
+    private long upperBound;
+    /**
+     * Further aggregations over the books with this value, when requested; {@code null} otherwise.
+     */
+    private Aggregates aggregates;
+
+    public StatisticsItem(String value, long count) {
+        this(value, count, 0, 0, null);
+    }
+
+    public boolean hasInterval() {
+        return upperBound > 0;
+    }
 
     /**
      * Compare by count in descending order (highest count first).
@@ -23,4 +41,13 @@ public class StatisticsItem implements Comparable<StatisticsItem> {
     public int compareTo(StatisticsItem other) {
         return Long.compare(other.count, this.count);
     }
+
+    /**
+     * @param minYear         earliest {@code year_published}; {@code null} when not requested or no book had a year
+     * @param maxYear         latest {@code year_published}
+     * @param meanYear        mean {@code year_published} of the books that had one
+     * @param distinctAuthors number of distinct authors; {@code null} when not requested
+     */
+    public record Aggregates(Integer minYear, Integer maxYear, Double meanYear, Long distinctAuthors) {
+    }
 }
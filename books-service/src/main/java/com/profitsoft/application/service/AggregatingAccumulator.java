@@ -0,0 +1,135 @@
+package com.profitsoft.application.service;
+
+import com.profitsoft.application.entities.StatisticsItem;
+import com.profitsoft.application.utils.BookFieldsBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts through a wrapped accumulator and additionally keeps, per key, the aggregations selected with
+ * {@link StatisticsService#setAggregations}: the range and mean of {@code year_published} and the set of
+ * distinct author keys of the books with that value. Filled from the same {@link BookFieldsBuffer} as the
+ * counts, so they cost no extra pass. Only the exact counts of the {@code title}, {@code author} and
+ * {@code genre} attributes are wrapped.
+ */
+class AggregatingAccumulator implements StatisticsAccumulator {
+
+    private final StatisticsAccumulator counts;
+    private final boolean years;
+    private final boolean authors;
+    private final Map<String, KeyStats> stats = new HashMap<>();
+
+    AggregatingAccumulator(StatisticsAccumulator counts, Set<StatisticsService.Aggregation> aggregations) {
+        this.counts = counts;
+        this.years = aggregations.contains(StatisticsService.Aggregation.YEAR);
+        this.authors = aggregations.contains(StatisticsService.Aggregation.DISTINCT_AUTHORS);
+    }
+
+    @Override
+    public void add(String key, String representative, long count) {
+        counts.add(key, representative, count);
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        counts.addValue(chars, offset, length);
+    }
+
+    /**
+     * Adds the year and authors of {@code book} to every non-blank value of {@code field}. Called once per
+     * book, after its values were counted.
+     */
+    void aggregate(BookFieldsBuffer book, int field) {
+        boolean hasYear = years && book.hasYearPublished();
+        List<String> authorKeys = authors ? textKeys(book, BookFieldsBuffer.AUTHOR) : List.of();
+        if (!hasYear && authorKeys.isEmpty()) return;
+        for (String key : textKeys(book, field)) {
+            KeyStats entry = stats.computeIfAbsent(key, k -> new KeyStats());
+            if (hasYear) entry.addYear(book.yearPublishedValue());
+            entry.authors.addAll(authorKeys);
+        }
+    }
+
+    /**
+     * @return {@code null} when none of the books with this key had a year or an author
+     */
+    StatisticsItem.Aggregates aggregates(String key) {
+        KeyStats entry = stats.get(key);
+        if (entry == null) return null;
+        boolean hasYears = entry.yearCount > 0;
+        return new StatisticsItem.Aggregates(
+                hasYears ? entry.minYear : null,
+                hasYears ? entry.maxYear : null,
+                hasYears ? (double) entry.yearSum / entry.yearCount : null,
+                authors ? (long) entry.authors.size() : null);
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        if (other instanceof AggregatingAccumulator aggregating) {
+            counts.merge(aggregating.counts);
+            aggregating.stats.forEach((key, entry) -> stats.merge(key, entry, KeyStats::merge));
+        } else {
+            counts.merge(other);
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        counts.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return counts.size();
+    }
+
+    @Override
+    public long distinctCount() {
+        return counts.distinctCount();
+    }
+
+    /**
+     * Trimmed, lower-cased values of a field, keyed like the counts.
+     */
+    private static List<String> textKeys(BookFieldsBuffer book, int field) {
+        List<String> keys = new ArrayList<>(2);
+        char[] chars = book.chars();
+        for (int i = 0; i < book.segmentCount(); i++) {
+            if (book.field(i) != field) continue;
+            int end = KeyFolding.trimEnd(chars, book.start(i), book.start(i) + book.length(i));
+            int start = KeyFolding.trimStart(chars, book.start(i), end);
+            if (start < end) keys.add(new String(chars, start, end - start).toLowerCase());
+        }
+        return keys;
+    }
+
+    private static final class KeyStats {
+        private int minYear = Integer.MAX_VALUE;
+        private int maxYear = Integer.MIN_VALUE;
+        private long yearSum;
+        private long yearCount;
+        private final Set<String> authors = new HashSet<>();
+
+        void addYear(int year) {
+            minYear = Math.min(minYear, year);
+            maxYear = Math.max(maxYear, year);
+            yearSum += year;
+            yearCount++;
+        }
+
+        KeyStats merge(KeyStats other) {
+            minYear = Math.min(minYear, other.minYear);
+            maxYear = Math.max(maxYear, other.maxYear);
+            yearSum += other.yearSum;
+            yearCount += other.yearCount;
+            authors.addAll(other.authors);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.profitsoft.application.service;
+
+import com.profitsoft.application.utils.BookFieldsBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conditions a book has to meet to be counted, all of which must hold. They are tested against the
+ * {@link BookFieldsBuffer} of each book, so in projection mode a book that does not match is dropped
+ * before any string or entity is created for it.
+ * <p>
+ * A condition is {@code <attribute> <operator> <value>}:
+ * <ul>
+ *     <li>{@code year_published} with {@code = != < <= > >=} and a whole number;</li>
+ *     <li>{@code title}, {@code author} or {@code genre} with {@code =} or {@code !=} and a value,
+ *     {@code in (a, b, ...)} or {@code contains} and a value; text is compared ignoring case, and a
+ *     genre condition holds when any of the genres of a book matches ({@code !=}: none matches).</li>
+ * </ul>
+ * A book without the attribute matches only {@code !=}. Values may be quoted with {@code '} or {@code "}.
+ */
+public final class BookFilter {
+
+    private static final Pattern CONDITION = Pattern.compile(
+            "\\s*(\\w+)\\s*(<=|>=|!=|=|<|>|\\s(?:in|contains)\\s)\\s*(.*?)\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern LIST = Pattern.compile("\\((.*)\\)", Pattern.DOTALL);
+
+    private final List<String> expressions;
+    private final List<Condition> conditions;
+    private final Set<String> attributes;
+
+    private BookFilter(List<String> expressions, List<Condition> conditions, Set<String> attributes) {
+        this.expressions = expressions;
+        this.conditions = conditions;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a condition cannot be parsed
+     */
+    public static BookFilter parse(List<String> expressions) {
+        List<Condition> conditions = new ArrayList<>();
+        Set<String> attributes = new LinkedHashSet<>();
+        for (String expression : expressions) {
+            Matcher m = CONDITION.matcher(expression);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid filter: " + expression);
+            }
+            String attribute = m.group(1).toLowerCase(Locale.ROOT);
+            String operator = m.group(2).trim().toLowerCase(Locale.ROOT);
+            String value = m.group(3);
+            conditions.add(switch (attribute) {
+                case "year_published" -> yearCondition(expression, operator, value);
+                case "title" -> textCondition(expression, BookFieldsBuffer.TITLE, operator, value);
+                case "author" -> textCondition(expression, BookFieldsBuffer.AUTHOR, operator, value);
+                case "genre" -> textCondition(expression, BookFieldsBuffer.GENRE, operator, value);
+                default -> throw new IllegalArgumentException("Unsupported filter attribute: " + expression);
+            });
+            attributes.add(attribute);
+        }
+        return new BookFilter(List.copyOf(expressions), List.copyOf(conditions), Set.copyOf(attributes));
+    }
+
+    /**
+     * Attributes the conditions read; they have to be projected together with the counted ones.
+     */
+    public Set<String> attributes() {
+        return attributes;
+    }
+
+    public boolean test(BookFieldsBuffer book) {
+        for (Condition condition : conditions) {
+            if (!condition.test(book)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" and ", expressions);
+    }
+
+    private static Condition yearCondition(String expression, String operator, String value) {
+        int year;
+        try {
+            year = Integer.parseInt(unquote(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid year in filter: " + expression);
+        }
+        return switch (operator) {
+            case "=" -> book -> book.hasYearPublished() && book.yearPublishedValue() == year;
+            case "!=" -> book -> !book.hasYearPublished() || book.yearPublishedValue() != year;
+            case "<" -> book -> book.hasYearPublished() && book.yearPublishedValue() < year;
+            case "<=" -> book -> book.hasYearPublished() && book.yearPublishedValue() <= year;
+            case ">" -> book -> book.hasYearPublished() && book.yearPublishedValue() > year;
+            case ">=" -> book -> book.hasYearPublished() && book.yearPublishedValue() >= year;
+            default -> throw new IllegalArgumentException("Unsupported operator for year_published: " + expression);
+        };
+    }
+
+    private static Condition textCondition(String expression, int field, String operator, String value) {
+        return switch (operator) {
+            case "=" -> new TextCondition(field, false, false, new char[][]{lowerChars(unquote(value))});
+            case "!=" -> new TextCondition(field, false, true, new char[][]{lowerChars(unquote(value))});
+            case "contains" -> new TextCondition(field, true, false, new char[][]{lowerChars(unquote(value))});
+            case "in" -> {
+                Matcher list = LIST.matcher(value);
+                if (!list.matches()) {
+                    throw new IllegalArgumentException("Expected a list in parentheses: " + expression);
+                }
+                yield new TextCondition(field, false, false, Arrays.stream(list.group(1).split(","))
+                        .map(item -> lowerChars(unquote(item.trim())))
+                        .toArray(char[][]::new));
+            }
+            default -> throw new IllegalArgumentException("Unsupported operator for text: " + expression);
+        };
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2) {
+            char first = value.charAt(0);
+            if ((first == '\'' || first == '"') && value.charAt(value.length() - 1) == first) {
+                return value.substring(1, value.length() - 1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Lower-cases char by char, so that the length stays that of the compared text.
+     */
+    private static char[] lowerChars(String value) {
+        char[] chars = value.trim().toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(chars[i]);
+        return chars;
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean test(BookFieldsBuffer book);
+    }
+
+    /**
+     * Compares the trimmed segments of one field with the values, without creating strings.
+     */
+    private record TextCondition(int field, boolean contains, boolean negated, char[][] values)
+            implements Condition {
+
+        @Override
+        public boolean test(BookFieldsBuffer book) {
+            char[] chars = book.chars();
+            for (int i = 0; i < book.segmentCount(); i++) {
+                if (book.field(i) != field) continue;
+                int from = KeyFolding.trimStart(chars, book.start(i), book.start(i) + book.length(i));
+                int to = KeyFolding.trimEnd(chars, from, book.start(i) + book.length(i));
+                for (char[] value : values) {
+                    if (contains ? containsValue(chars, from, to, value) : regionEquals(chars, from, to, value)) {
+                        return !negated;
+                    }
+                }
+            }
+            return negated;
+        }
+
+        private static boolean regionEquals(char[] chars, int from, int to, char[] value) {
+            if (to - from != value.length) return false;
+            for (int i = 0; i < value.length; i++) {
+                if (Character.toLowerCase(chars[from + i]) != value[i]) return false;
+            }
+            return true;
+        }
+
+        private static boolean containsValue(char[] chars, int from, int to, char[] value) {
+            for (int start = from; start + value.length <= to; start++) {
+                if (regionEquals(chars, start, start + value.length, value)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.profitsoft.application.service;
+
+/**
+ * Keeps only a {@link HyperLogLog} sketch of the normalized values: no counts and no per-value state,
+ * so memory stays constant however many distinct values the attribute has.
+ */
+class DistinctCountAccumulator implements StatisticsAccumulator {
+
+    private final HyperLogLog sketch = new HyperLogLog();
+
+    @Override
+    public void add(String key, String representative, long count) {
+        sketch.add(key);
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        if (other instanceof DistinctCountAccumulator distinct) {
+            sketch.merge(distinct.sketch);
+        } else {
+            other.forEach(this::add);
+        }
+    }
+
+    /**
+     * Reports no entries; only {@link #distinctCount()} is available.
+     */
+    @Override
+    public void forEach(EntryConsumer consumer) {
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public long distinctCount() {
+        return sketch.estimate();
+    }
+}
@@ -0,0 +1,138 @@
+package com.profitsoft.application.service;
+
+/**
+ * Exact counts in an open-addressing table keyed by the normalized value, with the first raw spelling
+ * seen as representative. Text from a shared buffer is trimmed, case-folded and hashed in place,
+ * so a value that was seen before costs one probe sequence and allocates nothing; strings are only
+ * created for a new key. Values with non-ASCII characters take the {@link String#toLowerCase()} path,
+ * so keys are the same either way.
+ */
+class ExactAccumulator implements StatisticsAccumulator {
+
+    private String[] keys = new String[16];
+    private String[] representatives = new String[16];
+    private long[] counts = new long[16];
+    private int size;
+
+    @Override
+    public void add(String key, String representative, long count) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            slot = insert(slot, key, representative);
+        }
+        counts[slot] += count;
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        int end = KeyFolding.trimEnd(chars, offset, offset + length);
+        offset = KeyFolding.trimStart(chars, offset, end);
+        if (offset == end) return;
+
+        long folded = KeyFolding.foldedHash(chars, offset, end);
+        if (folded == KeyFolding.NOT_FOLDABLE) {
+            addValue(new String(chars, offset, end - offset));
+            return;
+        }
+        int hash = (int) folded;
+        int mask = keys.length - 1;
+        int slot = KeyFolding.spread(hash) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.hashCode() == hash && KeyFolding.equalsFolded(key, chars, offset, end)) {
+                counts[slot]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String representative = new String(chars, offset, end - offset);
+        slot = insert(slot, representative.toLowerCase(), representative);
+        counts[slot]++;
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        other.forEach(this::add);
+    }
+
+    /**
+     * Removes a previously merged partial; entries whose count drops to zero are dropped.
+     */
+    void subtract(StatisticsAccumulator other) {
+        other.forEach((key, representative, count) -> {
+            int slot = slot(key);
+            if (keys[slot] != null) counts[slot] -= count;
+        });
+        rehash(keys.length);
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) consumer.accept(keys[i], representatives[i], counts[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    long count(String key) {
+        int slot = slot(key);
+        return keys[slot] != null ? counts[slot] : 0;
+    }
+
+    /**
+     * Slot holding {@code key}, or the empty slot where it would be inserted.
+     */
+    private int slot(String key) {
+        int hash = key.hashCode();
+        int mask = keys.length - 1;
+        int slot = KeyFolding.spread(hash) & mask;
+        String existing;
+        while ((existing = keys[slot]) != null) {
+            if (existing.hashCode() == hash && existing.equals(key)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Stores a new key in the empty {@code slot}, growing the table at a load factor of 2/3.
+     *
+     * @return the key's slot, which moves when the table grows
+     */
+    private int insert(int slot, String key, String representative) {
+        if (3 * (size + 1) > 2 * keys.length) {
+            rehash(keys.length * 2);
+            slot = slot(key);
+        }
+        keys[slot] = key;
+        representatives[slot] = representative;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Rebuilds the table with {@code capacity} slots, dropping entries whose count is not positive.
+     */
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        String[] oldRepresentatives = representatives;
+        long[] oldCounts = counts;
+        keys = new String[capacity];
+        representatives = new String[capacity];
+        counts = new long[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && oldCounts[i] > 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                representatives[slot] = oldRepresentatives[i];
+                counts[slot] = oldCounts[i];
+                size++;
+            }
+        }
+    }
+}
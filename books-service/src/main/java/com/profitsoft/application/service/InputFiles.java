@@ -0,0 +1,120 @@
+package com.profitsoft.application.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily enumerates the input files of a directory, optionally including its subdirectories.
+ * Directories are read one entry at a time, so memory use depends on the depth of the tree and not on
+ * the number of files. Unreadable subdirectories are logged and skipped; symbolic links to directories
+ * are not followed.
+ */
+@Slf4j
+final class InputFiles implements Iterator<Path>, Closeable {
+
+    private final Path root;
+    private final PathMatcher matcher;
+    private final boolean matchRelative;
+    private final boolean recursive;
+    /**
+     * Open directories, innermost first.
+     */
+    private final Deque<Level> levels = new ArrayDeque<>();
+    private Path next;
+
+    /**
+     * @param glob matched against the file name, or against the path relative to {@code root}
+     *             when it contains a {@code /}
+     */
+    InputFiles(Path root, String glob, boolean recursive) throws IOException {
+        this.root = root;
+        this.matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+        this.matchRelative = glob.contains("/");
+        this.recursive = recursive;
+        open(root);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !levels.isEmpty()) {
+            Level level = levels.peek();
+            Path path;
+            try {
+                if (!level.entries().hasNext()) {
+                    closeCurrent();
+                    continue;
+                }
+                path = level.entries().next();
+            } catch (DirectoryIteratorException e) {
+                log.warn("Cannot read directory {}: {}", level.directory(), e.getCause().getMessage());
+                closeCurrent();
+                continue;
+            }
+            accept(path);
+        }
+        return next != null;
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Path path = next;
+        next = null;
+        return path;
+    }
+
+    @Override
+    public void close() {
+        while (!levels.isEmpty()) {
+            closeCurrent();
+        }
+    }
+
+    /**
+     * Matches by name before reading attributes, so a flat listing only stats the files it returns.
+     */
+    private void accept(Path path) {
+        boolean matches = matcher.matches(matchRelative ? root.relativize(path) : path.getFileName());
+        if (!matches && !recursive) return;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+                if (recursive) open(path);
+            } else if (matches && (attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(path))) {
+                next = path;
+            }
+        } catch (IOException e) {
+            log.warn("Skipping {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void open(Path directory) throws IOException {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        levels.push(new Level(directory, stream, stream.iterator()));
+    }
+
+    private void closeCurrent() {
+        Level level = levels.pop();
+        try {
+            level.stream().close();
+        } catch (IOException e) {
+            log.warn("Failed to close directory {}: {}", level.directory(), e.getMessage());
+        }
+    }
+
+    private record Level(Path directory, DirectoryStream<Path> stream, Iterator<Path> entries) {
+    }
+}
@@ -0,0 +1,64 @@
+package com.profitsoft.application.service;
+
+/**
+ * In-place case folding and hashing of buffered text for the counting tables. A folded value hashes like
+ * its lower-cased key ({@link String#hashCode()}), so a table can look it up without creating the key.
+ */
+final class KeyFolding {
+
+    /**
+     * In-place folding of ASCII letters matches {@link String#toLowerCase()} unless the default locale
+     * lower-cases 'I' differently (Turkish, Azeri).
+     */
+    private static final boolean ASCII_FOLDING = "I".toLowerCase().equals("i");
+
+    static final long NOT_FOLDABLE = -1L;
+
+    private KeyFolding() {
+    }
+
+    /**
+     * Hash of the lower-cased text between {@code from} and {@code to}, as an unsigned int,
+     * or {@link #NOT_FOLDABLE} if the text must go through {@link String#toLowerCase()}.
+     */
+    static long foldedHash(char[] chars, int from, int to) {
+        if (!ASCII_FOLDING) return NOT_FOLDABLE;
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c >= 0x80) return NOT_FOLDABLE;
+            hash = 31 * hash + toLowerAscii(c);
+        }
+        return hash & 0xFFFFFFFFL;
+    }
+
+    static boolean equalsFolded(String key, char[] chars, int from, int to) {
+        if (key.length() != to - from) return false;
+        for (int i = from; i < to; i++) {
+            if (key.charAt(i - from) != toLowerAscii(chars[i])) return false;
+        }
+        return true;
+    }
+
+    static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    static int trimStart(char[] chars, int from, int to) {
+        while (from < to && chars[from] <= ' ') from++;
+        return from;
+    }
+
+    static int trimEnd(char[] chars, int from, int to) {
+        while (to > from && chars[to - 1] <= ' ') to--;
+        return to;
+    }
+
+    /**
+     * Mixes the hash before it is masked to a slot index, as keys often differ only in the last characters.
+     */
+    static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
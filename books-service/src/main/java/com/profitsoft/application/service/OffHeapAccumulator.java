@@ -0,0 +1,236 @@
+package com.profitsoft.application.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact counts kept outside the Java heap, for attributes with so many distinct values that
+ * a heap table would dominate -Xmx and GC time.
+ * <p>
+ * Slots of an open-addressing table (hash and entry reference, 16 bytes each) live in direct buffers
+ * of {@value #SLOTS_PER_PAGE} slots. Entries are appended to direct arena pages: count, key length,
+ * representative length, then the UTF-8 key and representative. The heap only holds the page objects.
+ * Lookup of buffered ASCII text compares the stored bytes with the folded chars, so counting a known
+ * value allocates nothing; strings are only created again by {@link #forEach}.
+ */
+class OffHeapAccumulator implements StatisticsAccumulator {
+
+    private static final int SLOT_BYTES = 16;
+    private static final int SLOT_PAGE_SHIFT = 16;
+    private static final int SLOTS_PER_PAGE = 1 << SLOT_PAGE_SHIFT;
+    private static final int ARENA_PAGE_BYTES = 4 * 1024 * 1024;
+    private static final int ENTRY_HEADER_BYTES = 16;
+
+    private ByteBuffer[] slotPages;
+    private long capacity;
+    private long size;
+
+    private final List<ByteBuffer> arena = new ArrayList<>();
+    private ByteBuffer currentPage;
+
+    OffHeapAccumulator() {
+        allocateSlots(1024);
+    }
+
+    @Override
+    public void add(String key, String representative, long count) {
+        int hash = key.hashCode();
+        long slot = firstSlot(hash);
+        long entry;
+        while ((entry = entryAt(slot)) != 0) {
+            if (hashAt(slot) == hash && keyEquals(entry, key)) {
+                addCount(entry, count);
+                return;
+            }
+            slot = nextSlot(slot);
+        }
+        insert(slot, hash, key, representative, count);
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        int end = KeyFolding.trimEnd(chars, offset, offset + length);
+        offset = KeyFolding.trimStart(chars, offset, end);
+        if (offset == end) return;
+
+        long folded = KeyFolding.foldedHash(chars, offset, end);
+        if (folded == KeyFolding.NOT_FOLDABLE) {
+            addValue(new String(chars, offset, end - offset));
+            return;
+        }
+        int hash = (int) folded;
+        long slot = firstSlot(hash);
+        long entry;
+        while ((entry = entryAt(slot)) != 0) {
+            if (hashAt(slot) == hash && keyEqualsFolded(entry, chars, offset, end)) {
+                addCount(entry, 1);
+                return;
+            }
+            slot = nextSlot(slot);
+        }
+        String representative = new String(chars, offset, end - offset);
+        insert(slot, hash, representative.toLowerCase(), representative, 1);
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        other.forEach(this::add);
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (long slot = 0; slot < capacity; slot++) {
+            long entry = entryAt(slot);
+            if (entry == 0) continue;
+            ByteBuffer page = arena.get(pageOf(entry));
+            int offset = offsetOf(entry);
+            int keyLength = page.getInt(offset + 8);
+            int representativeLength = page.getInt(offset + 12);
+            String key = decode(page, offset + ENTRY_HEADER_BYTES, keyLength);
+            String representative = decode(page, offset + ENTRY_HEADER_BYTES + keyLength, representativeLength);
+            consumer.accept(key, representative, page.getLong(offset));
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private void insert(long slot, int hash, String key, String representative, long count) {
+        if (3 * (size + 1) > 2 * capacity) {
+            growSlots();
+            slot = firstSlot(hash);
+            while (entryAt(slot) != 0) slot = nextSlot(slot);
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] representativeBytes = representative.getBytes(StandardCharsets.UTF_8);
+        long entry = appendEntry(keyBytes, representativeBytes, count);
+        ByteBuffer page = slotPage(slot);
+        int offset = slotOffset(slot);
+        page.putInt(offset, hash);
+        page.putLong(offset + 8, entry);
+        size++;
+    }
+
+    /**
+     * @return reference to the new entry: arena page in the high half, offset plus one in the low half,
+     * so zero means an empty slot
+     */
+    private long appendEntry(byte[] key, byte[] representative, long count) {
+        int length = ENTRY_HEADER_BYTES + key.length + representative.length;
+        if (currentPage == null || currentPage.remaining() < length) {
+            currentPage = ByteBuffer.allocateDirect(Math.max(ARENA_PAGE_BYTES, length));
+            arena.add(currentPage);
+        }
+        int offset = currentPage.position();
+        currentPage.putLong(count).putInt(key.length).putInt(representative.length).put(key).put(representative);
+        return ((long) (arena.size() - 1) << 32) | (offset + 1L);
+    }
+
+    private void addCount(long entry, long count) {
+        ByteBuffer page = arena.get(pageOf(entry));
+        int offset = offsetOf(entry);
+        page.putLong(offset, page.getLong(offset) + count);
+    }
+
+    private boolean keyEquals(long entry, String key) {
+        ByteBuffer page = arena.get(pageOf(entry));
+        int offset = offsetOf(entry);
+        int keyLength = page.getInt(offset + 8);
+        int start = offset + ENTRY_HEADER_BYTES;
+        if (keyLength == key.length()) {
+            // Same length in bytes and chars: equal only if the key is ASCII, compare without encoding
+            boolean ascii = true;
+            for (int i = 0; i < keyLength && ascii; i++) {
+                char c = key.charAt(i);
+                if (c >= 0x80) ascii = false;
+                else if (page.get(start + i) != c) return false;
+            }
+            if (ascii) return true;
+        }
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != keyLength) return false;
+        for (int i = 0; i < keyLength; i++) {
+            if (page.get(start + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean keyEqualsFolded(long entry, char[] chars, int from, int to) {
+        ByteBuffer page = arena.get(pageOf(entry));
+        int offset = offsetOf(entry);
+        if (page.getInt(offset + 8) != to - from) return false;
+        int start = offset + ENTRY_HEADER_BYTES - from;
+        for (int i = from; i < to; i++) {
+            if (page.get(start + i) != KeyFolding.toLowerAscii(chars[i])) return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer page, int offset, int length) {
+        byte[] bytes = new byte[length];
+        page.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void growSlots() {
+        ByteBuffer[] oldPages = slotPages;
+        long oldCapacity = capacity;
+        allocateSlots(capacity * 2);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer page = oldPages[(int) (slot >>> SLOT_PAGE_SHIFT)];
+            int offset = (int) (slot & (SLOTS_PER_PAGE - 1)) * SLOT_BYTES;
+            long entry = page.getLong(offset + 8);
+            if (entry == 0) continue;
+            int hash = page.getInt(offset);
+            long target = firstSlot(hash);
+            while (entryAt(target) != 0) target = nextSlot(target);
+            slotPage(target).putInt(slotOffset(target), hash).putLong(slotOffset(target) + 8, entry);
+        }
+    }
+
+    private void allocateSlots(long slots) {
+        capacity = slots;
+        int pages = (int) Math.max(1, slots >>> SLOT_PAGE_SHIFT);
+        int pageSlots = (int) Math.min(slots, SLOTS_PER_PAGE);
+        slotPages = new ByteBuffer[pages];
+        for (int i = 0; i < pages; i++) {
+            slotPages[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_BYTES);
+        }
+    }
+
+    private long firstSlot(int hash) {
+        return KeyFolding.spread(hash) & 0xFFFFFFFFL & (capacity - 1);
+    }
+
+    private long nextSlot(long slot) {
+        return (slot + 1) & (capacity - 1);
+    }
+
+    private long entryAt(long slot) {
+        return slotPage(slot).getLong(slotOffset(slot) + 8);
+    }
+
+    private int hashAt(long slot) {
+        return slotPage(slot).getInt(slotOffset(slot));
+    }
+
+    private ByteBuffer slotPage(long slot) {
+        return slotPages[(int) (slot >>> SLOT_PAGE_SHIFT)];
+    }
+
+    private static int slotOffset(long slot) {
+        return (int) (slot & (SLOTS_PER_PAGE - 1)) * SLOT_BYTES;
+    }
+
+    private static int pageOf(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int offsetOf(long entry) {
+        return (int) entry - 1;
+    }
+}
@@ -0,0 +1,77 @@
+package com.profitsoft.application.service;
+
+import java.util.function.IntFunction;
+
+/**
+ * Partial result of one worker (or one file): an accumulator per requested attribute,
+ * the number of books seen and the number of errors.
+ * All attributes are filled from the same parsed book, so a directory is read once for any attribute set.
+ */
+class PartialStatistics {
+
+    private final StatisticsAccumulator[] accumulators;
+    private long bookCount;
+    private long errorCount;
+
+    PartialStatistics(int attributeCount) {
+        this(attributeCount, attributeIndex -> new ExactAccumulator());
+    }
+
+    /**
+     * @param accumulatorFactory creates the accumulator of the attribute with the given index
+     */
+    PartialStatistics(int attributeCount, IntFunction<StatisticsAccumulator> accumulatorFactory) {
+        accumulators = new StatisticsAccumulator[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            accumulators[i] = accumulatorFactory.apply(i);
+        }
+    }
+
+    StatisticsAccumulator get(int attributeIndex) {
+        return accumulators[attributeIndex];
+    }
+
+    void incrementBookCount() {
+        bookCount++;
+    }
+
+    long getBookCount() {
+        return bookCount;
+    }
+
+    void addBookCount(long count) {
+        bookCount += count;
+    }
+
+    void incrementErrorCount() {
+        errorCount++;
+    }
+
+    long getErrorCount() {
+        return errorCount;
+    }
+
+    void addErrorCount(long count) {
+        errorCount += count;
+    }
+
+    int attributeCount() {
+        return accumulators.length;
+    }
+
+    int size() {
+        int size = 0;
+        for (StatisticsAccumulator accumulator : accumulators) {
+            size += accumulator.size();
+        }
+        return size;
+    }
+
+    void merge(PartialStatistics other) {
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i].merge(other.accumulators[i]);
+        }
+        bookCount += other.bookCount;
+        errorCount += other.errorCount;
+    }
+}
@@ -0,0 +1,65 @@
+package com.profitsoft.application.service;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts virtual threads that block while pinned to their carrier (inside {@code synchronized}
+ * or a native frame), using the JFR {@code jdk.VirtualThreadPinned} event. The first few events
+ * are logged with the application frame that caused them.
+ */
+@Slf4j
+final class PinnedThreadMonitor implements AutoCloseable {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final Duration THRESHOLD = Duration.ofMillis(20);
+    private static final int LOGGED_EVENTS = 10;
+
+    private final RecordingStream stream = new RecordingStream();
+    private final AtomicLong events = new AtomicLong();
+
+    PinnedThreadMonitor() {
+        stream.enable(PINNED_EVENT).withThreshold(THRESHOLD).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+    }
+
+    /**
+     * Stops recording once all recorded events have been delivered.
+     *
+     * @return number of pinned events seen
+     */
+    long stop() {
+        stream.stop();
+        return events.get();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        if (events.incrementAndGet() <= LOGGED_EVENTS) {
+            log.warn("Virtual thread pinned its carrier for {} ms at {}",
+                    event.getDuration().toMillis(), applicationFrame(event.getStackTrace()));
+        }
+    }
+
+    private static String applicationFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) return "unknown location";
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return stackTrace.getFrames().isEmpty() ? "unknown location" : stackTrace.getFrames().getFirst().toString();
+    }
+}
@@ -0,0 +1,176 @@
+package com.profitsoft.application.service;
+
+import com.profitsoft.application.utils.BookFieldsBuffer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A two-dimensional statistic such as {@code genre x decade(year_published)} or {@code author x genre}:
+ * books are counted per combination of a row and a column value, giving a sparse count matrix. A book
+ * with several values of a dimension (genres) counts once per combination; a book without a value of
+ * either dimension is not counted.
+ * <p>
+ * A dimension is {@code title}, {@code author}, {@code genre} or {@code year_published}. Years can be
+ * bucketed with {@code decade(year_published)}, {@code century(year_published)} or
+ * {@code bucket(year_published, <size>)}. A cell is counted under a key made of both value keys, so the
+ * counting modes, the cache and sampling work as for a single attribute.
+ */
+public final class PivotSpec {
+
+    /**
+     * Joins the row and column parts of a cell key and of its representative; sorts before any printable
+     * character, so cells in key order are grouped by row.
+     */
+    static final char SEPARATOR = '\u001F';
+
+    private static final Pattern PIVOT = Pattern.compile("\\s*(.+?)\\s+x\\s+(.+?)\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern BUCKET = Pattern.compile(
+            "(decade|century|bucket)\\(\\s*(\\w+)\\s*(?:,\\s*(\\d+)\\s*)?\\)", Pattern.CASE_INSENSITIVE);
+    private static final String KEY_PADDING = "0000000000";
+
+    private final Dimension rows;
+    private final Dimension columns;
+
+    private PivotSpec(Dimension rows, Dimension columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Whether an attribute name is a pivot specification ({@code <rows> x <columns>}).
+     */
+    public static boolean isPivot(String attribute) {
+        return PIVOT.matcher(attribute).matches();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the specification or one of its dimensions is not supported
+     */
+    public static PivotSpec parse(String attribute) {
+        Matcher m = PIVOT.matcher(attribute);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Expected <rows> x <columns>: " + attribute);
+        }
+        return new PivotSpec(dimension(m.group(1)), dimension(m.group(2)));
+    }
+
+    /**
+     * Normalized specification, used as the attribute name of the result.
+     */
+    public String name() {
+        return rows.name() + " x " + columns.name();
+    }
+
+    public String rows() {
+        return rows.name();
+    }
+
+    public String columns() {
+        return columns.name();
+    }
+
+    /**
+     * Attributes the dimensions read; they have to be projected.
+     */
+    public Set<String> attributes() {
+        Set<String> attributes = new LinkedHashSet<>();
+        attributes.add(rows.attribute());
+        attributes.add(columns.attribute());
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    void count(BookFieldsBuffer book, StatisticsAccumulator accumulator) {
+        List<Value> rowValues = rows.values(book);
+        if (rowValues.isEmpty()) return;
+        List<Value> columnValues = columns.values(book);
+        for (Value row : rowValues) {
+            for (Value column : columnValues) {
+                accumulator.add(row.key() + SEPARATOR + column.key(), row.label() + SEPARATOR + column.label(), 1);
+            }
+        }
+    }
+
+    /**
+     * Splits the representative of a cell into its row and column values.
+     */
+    static String[] split(String cell) {
+        int separator = cell.indexOf(SEPARATOR);
+        return new String[]{cell.substring(0, separator), cell.substring(separator + 1)};
+    }
+
+    private static Dimension dimension(String text) {
+        String spec = text.trim().toLowerCase(Locale.ROOT);
+        Matcher bucket = BUCKET.matcher(spec);
+        if (bucket.matches()) {
+            if (!bucket.group(2).equals("year_published")) {
+                throw new IllegalArgumentException("Only year_published can be bucketed: " + text);
+            }
+            int size = switch (bucket.group(1)) {
+                case "decade" -> 10;
+                case "century" -> 100;
+                default -> bucket.group(3) != null ? Integer.parseInt(bucket.group(3)) : 0;
+            };
+            if (size < 1 || (bucket.group(3) != null) != bucket.group(1).equals("bucket")) {
+                throw new IllegalArgumentException("Invalid bucket: " + text);
+            }
+            return new Dimension(spec.replaceAll("\\s+", ""), "year_published", -1, size);
+        }
+        return switch (spec) {
+            case "title" -> new Dimension(spec, spec, BookFieldsBuffer.TITLE, 0);
+            case "author" -> new Dimension(spec, spec, BookFieldsBuffer.AUTHOR, 0);
+            case "genre" -> new Dimension(spec, spec, BookFieldsBuffer.GENRE, 0);
+            case "year_published" -> new Dimension(spec, spec, -1, 1);
+            default -> throw new IllegalArgumentException("Unsupported pivot dimension: " + text);
+        };
+    }
+
+    /**
+     * @param field  text field, or {@code -1} for {@code year_published}
+     * @param bucket width of a year bucket; zero for text
+     */
+    private record Dimension(String name, String attribute, int field, int bucket) {
+
+        List<Value> values(BookFieldsBuffer book) {
+            List<Value> values = new ArrayList<>(2);
+            if (field < 0) {
+                if (book.hasYearPublished()) values.add(yearValue(book.yearPublishedValue()));
+                return values;
+            }
+            char[] chars = book.chars();
+            for (int i = 0; i < book.segmentCount(); i++) {
+                if (book.field(i) != field) continue;
+                int end = KeyFolding.trimEnd(chars, book.start(i), book.start(i) + book.length(i));
+                int start = KeyFolding.trimStart(chars, book.start(i), end);
+                if (start == end) continue;
+                String value = new String(chars, start, end - start);
+                values.add(new Value(value.toLowerCase(), value));
+            }
+            return values;
+        }
+
+        /**
+         * Keyed by the zero-padded offset of the bucket start, so that years sort numerically.
+         */
+        private Value yearValue(int year) {
+            int start = Math.floorDiv(year, bucket) * bucket;
+            String digits = Long.toString((long) start - Integer.MIN_VALUE);
+            String label = bucket == 1 ? String.valueOf(start) : start + "-" + (start + bucket - 1);
+            return new Value(KEY_PADDING.substring(digits.length()) + digits, label);
+        }
+    }
+
+    private record Value(String key, String label) {
+    }
+}
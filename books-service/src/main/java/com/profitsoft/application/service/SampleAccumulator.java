@@ -0,0 +1,82 @@
+package com.profitsoft.application.service;
+
+/**
+ * Exact counts of a sampling run (see {@link StatisticsService#setSampleFraction}). Each sampled unit,
+ * i.e. a file, a range of a split file or an archive entry, is counted on its own and merged in here,
+ * so besides the sampled count of every value the sum of its squared per-unit counts is known.
+ * <p>
+ * Units are drawn independently with probability {@code f}, which makes {@code count / f} an unbiased
+ * (Horvitz-Thompson) estimate of the full count with estimated variance {@code (1 - f) / f² · Σ y²},
+ * {@code y} being the count of the value in one sampled unit. {@link #forEachEstimate} reports the
+ * estimate with a normal-approximation 95% interval.
+ */
+class SampleAccumulator implements StatisticsAccumulator {
+
+    private static final double Z_95 = 1.96;
+
+    private final ExactAccumulator counts = new ExactAccumulator();
+    private final ExactAccumulator squares = new ExactAccumulator();
+
+    /**
+     * Values added directly belong to no sampled unit: they are counted but add nothing to the variance.
+     */
+    @Override
+    public void add(String key, String representative, long count) {
+        counts.add(key, representative, count);
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        counts.addValue(chars, offset, length);
+    }
+
+    /**
+     * Merges another sample, or takes any other accumulator as the counts of one sampled unit.
+     */
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        if (other instanceof SampleAccumulator sample) {
+            counts.merge(sample.counts);
+            squares.merge(sample.squares);
+        } else {
+            other.forEach((key, representative, count) -> {
+                counts.add(key, representative, count);
+                squares.add(key, representative, count * count);
+            });
+        }
+    }
+
+    /**
+     * Sampled counts, not extrapolated.
+     */
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        counts.forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return counts.size();
+    }
+
+    /**
+     * Extrapolates the count of every sampled value. The lower bound is never below the count seen
+     * in the sample; values that were not sampled are not reported.
+     *
+     * @param fraction probability with which each unit was drawn
+     */
+    void forEachEstimate(double fraction, EstimateConsumer consumer) {
+        counts.forEach((key, representative, count) -> {
+            double estimate = count / fraction;
+            double halfWidth = Z_95 * Math.sqrt((1 - fraction) / (fraction * fraction) * squares.count(key));
+            consumer.accept(key, representative, Math.round(estimate),
+                    Math.max(count, (long) Math.floor(estimate - halfWidth)),
+                    (long) Math.ceil(estimate + halfWidth));
+        });
+    }
+
+    @FunctionalInterface
+    interface EstimateConsumer {
+        void accept(String key, String representative, long estimate, long lowerBound, long upperBound);
+    }
+}
@@ -0,0 +1,181 @@
+package com.profitsoft.application.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Approximate top-K counts with bounded memory (Space-Saving, Metwally et al.).
+ * <p>
+ * At most {@code capacity} counters are kept in a min-heap indexed by key. A new value arriving when
+ * all counters are taken replaces the smallest counter and inherits its count as error, so every
+ * reported count overestimates the true count by at most its error, and a value that is not reported
+ * occurred at most {@link #maxCountError()} times. With N values counted the error is at most N / capacity.
+ * Partials are combined with the mergeable-summaries rule (Agarwal et al.).
+ * Evicted values are still seen by a {@link HyperLogLog} sketch, which provides {@link #distinctCount()}.
+ */
+class SpaceSavingAccumulator implements StatisticsAccumulator {
+
+    private final int capacity;
+    private final HashMap<String, Counter> index;
+    private final HyperLogLog distinct = new HyperLogLog();
+    private Counter[] heap;
+    private int size;
+
+    SpaceSavingAccumulator(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.capacity = capacity;
+        this.index = new HashMap<>();
+        this.heap = new Counter[Math.min(capacity, 1024)];
+    }
+
+    @Override
+    public void add(String key, String representative, long count) {
+        distinct.add(key);
+        Counter counter = index.get(key);
+        if (counter != null) {
+            counter.count += count;
+            siftDown(counter.position);
+        } else if (size < capacity) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, Math.min(capacity, heap.length * 2));
+            }
+            counter = new Counter(key, representative, count, 0);
+            counter.position = size;
+            heap[size++] = counter;
+            index.put(key, counter);
+            siftUp(counter.position);
+        } else {
+            Counter min = heap[0];
+            index.remove(min.key);
+            min.key = key;
+            min.representative = representative;
+            min.error = min.count;
+            min.count += count;
+            index.put(key, min);
+            siftDown(0);
+        }
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        if (!(other instanceof SpaceSavingAccumulator sketch)) {
+            other.forEach(this::add);
+            return;
+        }
+        distinct.merge(sketch.distinct);
+        long thisMin = minCount();
+        long otherMin = sketch.minCount();
+        List<Counter> combined = new ArrayList<>(size + sketch.size);
+        for (int i = 0; i < size; i++) {
+            Counter c = heap[i];
+            Counter o = sketch.index.get(c.key);
+            combined.add(o != null
+                    ? new Counter(c.key, c.representative, c.count + o.count, c.error + o.error)
+                    : new Counter(c.key, c.representative, c.count + otherMin, c.error + otherMin));
+        }
+        for (int i = 0; i < sketch.size; i++) {
+            Counter o = sketch.heap[i];
+            if (!index.containsKey(o.key)) {
+                combined.add(new Counter(o.key, o.representative, o.count + thisMin, o.error + thisMin));
+            }
+        }
+        combined.sort(Comparator.comparingLong((Counter c) -> c.count).reversed());
+        index.clear();
+        size = 0;
+        heap = new Counter[Math.min(capacity, Math.max(combined.size(), 1))];
+        for (Counter c : combined.subList(0, Math.min(capacity, combined.size()))) {
+            c.position = size;
+            heap[size++] = c;
+            index.put(c.key, c);
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(heap[i].key, heap[i].representative, heap[i].count);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimated from the sketch once counters have been evicted, otherwise exact.
+     */
+    @Override
+    public long distinctCount() {
+        return size < capacity ? size : Math.max(size, distinct.estimate());
+    }
+
+    @Override
+    public long maxCountError() {
+        long max = minCount();
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, heap[i].error);
+        }
+        return max;
+    }
+
+    /**
+     * Smallest counter once all counters are taken, otherwise zero (nothing has been evicted yet).
+     */
+    private long minCount() {
+        return size < capacity || size == 0 ? 0 : heap[0].count;
+    }
+
+    private void siftUp(int i) {
+        Counter c = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= c.count) break;
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(c, i);
+    }
+
+    private void siftDown(int i) {
+        Counter c = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].count < heap[child].count) child = right;
+            if (c.count <= heap[child].count) break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(c, i);
+    }
+
+    private void place(Counter c, int i) {
+        heap[i] = c;
+        c.position = i;
+    }
+
+    private static final class Counter {
+        String key;
+        String representative;
+        long count;
+        long error;
+        int position;
+
+        Counter(String key, String representative, long count, long error) {
+            this.key = key;
+            this.representative = representative;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.profitsoft.application.service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Sorted run files of {@link SpillingAccumulator}: a sequence of (key, representative, count) records,
+ * and a k-way merge over several runs plus one in-memory run.
+ */
+final class SpillFile {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private SpillFile() {
+    }
+
+    record SpillRecord(String key, String representative, long count) {
+    }
+
+    /**
+     * Writes records, which must already be sorted, to a new file in {@code directory}.
+     */
+    static Path write(Path directory, Iterator<SpillRecord> records) throws IOException {
+        Path file = Files.createTempFile(directory, "run-", ".spill");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES))) {
+            while (records.hasNext()) {
+                SpillRecord record = records.next();
+                out.writeBoolean(true);
+                writeString(out, record.key());
+                writeString(out, record.representative());
+                out.writeLong(record.count());
+            }
+            out.writeBoolean(false);
+        }
+        return file;
+    }
+
+    /**
+     * Merges sorted runs and a sorted in-memory run into one sorted sequence; equal elements keep
+     * the order of their runs, the in-memory run last.
+     *
+     * @param decode maps a stored record to the merged element type
+     */
+    static <T> Merge<T> merge(List<Path> runs, Iterator<T> memory, Function<SpillRecord, T> decode,
+                              Comparator<T> order) throws IOException {
+        Merge<T> merge = new Merge<>(order);
+        try {
+            for (Path run : runs) {
+                merge.add(new RunSource<>(run, decode));
+            }
+            merge.add(new MemorySource<>(memory));
+        } catch (IOException | RuntimeException e) {
+            merge.close();
+            throw e;
+        }
+        return merge;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface Source<T> extends Closeable {
+        T current();
+
+        /**
+         * @return {@code false} once the source is exhausted
+         */
+        boolean advance() throws IOException;
+    }
+
+    private static final class RunSource<T> implements Source<T> {
+        private final DataInputStream in;
+        private final Function<SpillRecord, T> decode;
+        private T current;
+
+        RunSource(Path file, Function<SpillRecord, T> decode) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES));
+            this.decode = decode;
+        }
+
+        @Override
+        public T current() {
+            return current;
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            if (!in.readBoolean()) {
+                current = null;
+                return false;
+            }
+            current = decode.apply(new SpillRecord(readString(in), readString(in), in.readLong()));
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class MemorySource<T> implements Source<T> {
+        private final Iterator<T> iterator;
+        private T current;
+
+        MemorySource(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public T current() {
+            return current;
+        }
+
+        @Override
+        public boolean advance() {
+            current = iterator.hasNext() ? iterator.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static final class Merge<T> implements Iterator<T>, Closeable {
+        private final PriorityQueue<Map.Entry<Integer, Source<T>>> heap;
+        private final List<Source<T>> sources = new ArrayList<>();
+
+        private Merge(Comparator<T> order) {
+            Comparator<Map.Entry<Integer, Source<T>>> byElement =
+                    (a, b) -> order.compare(a.getValue().current(), b.getValue().current());
+            this.heap = new PriorityQueue<>(byElement.thenComparing(Map.Entry::getKey));
+        }
+
+        private void add(Source<T> source) throws IOException {
+            sources.add(source);
+            if (source.advance()) {
+                heap.add(Map.entry(sources.size() - 1, source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Map.Entry<Integer, Source<T>> top = heap.poll();
+            if (top == null) throw new NoSuchElementException();
+            T element = top.getValue().current();
+            try {
+                if (top.getValue().advance()) heap.add(top);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return element;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (Source<T> source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+}
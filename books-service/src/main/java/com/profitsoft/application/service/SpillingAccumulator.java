@@ -0,0 +1,298 @@
+package com.profitsoft.application.service;
+
+import com.profitsoft.application.entities.StatisticsItem;
+import com.profitsoft.application.service.SpillFile.SpillRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Exact counts for more distinct values than fit in memory (external aggregation).
+ * <p>
+ * Values are counted in an in-memory table; once it holds more than {@code threshold} keys, its entries
+ * are written to a run file sorted by key and the table starts over. Runs are merged by key when the
+ * entries are read, adding up the counts of a key and keeping the representative of its earliest run.
+ * Merging two accumulators only hands over their run files. Beyond {@value #MAX_RUNS} runs, groups of
+ * {@value #MERGED_RUNS} small runs are merged into one (size-tiered), so merges never open too many files
+ * and each entry is rewritten a logarithmic number of times.
+ */
+class SpillingAccumulator implements StatisticsAccumulator {
+
+    private static final int MAX_RUNS = 64;
+    private static final int MERGED_RUNS = 16;
+    private static final Comparator<SpillRecord> BY_KEY = Comparator.comparing(SpillRecord::key);
+
+    private final Path directory;
+    private final long threshold;
+    private final Supplier<StatisticsAccumulator> tables;
+    private StatisticsAccumulator memory;
+    /**
+     * Run files, oldest first; the order decides which representative of a key is kept.
+     */
+    private final List<SpillRun> runs = new ArrayList<>();
+    private long spilledEntries;
+    /**
+     * Distinct keys counted by the last complete {@link #forEach}, -1 once entries were added since.
+     */
+    private long mergedDistinct = -1;
+
+    /**
+     * @param directory where run files are created; the caller removes it when the run is done
+     * @param threshold distinct keys kept in memory before they are spilled
+     * @param tables    creates the in-memory table
+     */
+    SpillingAccumulator(Path directory, long threshold, Supplier<StatisticsAccumulator> tables) {
+        this.directory = directory;
+        this.threshold = Math.max(1, threshold);
+        this.tables = tables;
+        this.memory = tables.get();
+    }
+
+    @Override
+    public void add(String key, String representative, long count) {
+        mergedDistinct = -1;
+        memory.add(key, representative, count);
+        spillIfFull();
+    }
+
+    @Override
+    public void addValue(char[] chars, int offset, int length) {
+        mergedDistinct = -1;
+        memory.addValue(chars, offset, length);
+        spillIfFull();
+    }
+
+    @Override
+    public void merge(StatisticsAccumulator other) {
+        mergedDistinct = -1;
+        if (other instanceof SpillingAccumulator spilling) {
+            runs.addAll(spilling.runs);
+            spilledEntries += spilling.spilledEntries;
+            spilling.runs.clear();
+            spilling.spilledEntries = 0;
+            spilling.memory.forEach(this::add);
+            compactIfNeeded();
+        } else {
+            other.forEach(this::add);
+        }
+    }
+
+    /**
+     * Entries in key order, merged from all runs and the in-memory table. Counts the distinct keys on the way,
+     * for {@link #distinctCount()}.
+     */
+    @Override
+    public void forEach(EntryConsumer consumer) {
+        try (SpillFile.Merge<SpillRecord> merge = mergeRuns()) {
+            long[] distinct = new long[1];
+            Iterator<SpillRecord> entries = combineByKey(merge, distinct);
+            while (entries.hasNext()) {
+                SpillRecord entry = entries.next();
+                consumer.accept(entry.key(), entry.representative(), entry.count());
+            }
+            mergedDistinct = distinct[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to merge spilled statistics", e);
+        }
+    }
+
+    /**
+     * Upper bound: keys in memory plus the entries of all runs, counting a key once per run it is in.
+     * The exact number is {@link #distinctCount()}.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, memory.size() + spilledEntries);
+    }
+
+    /**
+     * Known without another pass over the runs once the entries were read with {@link #forEach}, as they are
+     * for the output.
+     */
+    @Override
+    public long distinctCount() {
+        if (runs.isEmpty()) return memory.size();
+        if (mergedDistinct < 0) forEach((key, representative, count) -> { });
+        return mergedDistinct;
+    }
+
+    boolean hasSpilled() {
+        return !runs.isEmpty();
+    }
+
+    /**
+     * Items in output order, sorted externally as well: the merged entries are formatted,
+     * sorted in chunks of {@code threshold} items, spilled and merged again.
+     * The returned iterator must be closed.
+     */
+    SortedItems sortedItems(Function<String, String> format, Comparator<StatisticsItem> order) throws IOException {
+        List<Path> itemRuns = new ArrayList<>();
+        List<StatisticsItem> chunk = new ArrayList<>();
+        try {
+            forEach((key, representative, count) -> {
+                chunk.add(new StatisticsItem(format.apply(representative), count));
+                if (chunk.size() >= threshold) {
+                    itemRuns.add(writeItems(chunk, order));
+                    chunk.clear();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        chunk.sort(order);
+        return new SortedItems(SpillFile.merge(itemRuns, chunk.iterator(),
+                record -> new StatisticsItem(record.key(), record.count()), order));
+    }
+
+    private Path writeItems(List<StatisticsItem> chunk, Comparator<StatisticsItem> order) {
+        chunk.sort(order);
+        try {
+            return SpillFile.write(directory, chunk.stream()
+                    .map(item -> new SpillRecord(item.getValue(), "", item.getCount()))
+                    .iterator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void spillIfFull() {
+        if (memory.size() > threshold) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        List<SpillRecord> records = new ArrayList<>(memory.size());
+        memory.forEach((key, representative, count) -> records.add(new SpillRecord(key, representative, count)));
+        records.sort(BY_KEY);
+        try {
+            runs.add(new SpillRun(SpillFile.write(directory, records.iterator()), records.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill statistics to " + directory, e);
+        }
+        spilledEntries += records.size();
+        memory = tables.get();
+        compactIfNeeded();
+    }
+
+    /**
+     * While there are more than {@link #MAX_RUNS} runs, merges the {@link #MERGED_RUNS} adjacent runs with the
+     * fewest entries into one, in their place. Fresh spills are small, so they are merged with each other, and
+     * a large run is only rewritten once enough runs of its size have built up. Merging adjacent runs keeps
+     * the run order, so the earliest representative of a key still wins.
+     */
+    private void compactIfNeeded() {
+        while (runs.size() > MAX_RUNS) {
+            int from = 0;
+            long fewest = Long.MAX_VALUE;
+            for (int i = 0; i + MERGED_RUNS <= runs.size(); i++) {
+                long entries = 0;
+                for (int j = i; j < i + MERGED_RUNS; j++) {
+                    entries += runs.get(j).entries();
+                }
+                if (entries < fewest) {
+                    fewest = entries;
+                    from = i;
+                }
+            }
+            List<SpillRun> group = runs.subList(from, from + MERGED_RUNS);
+            List<Path> merged = group.stream().map(SpillRun::file).toList();
+            long[] entries = new long[1];
+            Path run;
+            try (SpillFile.Merge<SpillRecord> merge = SpillFile.merge(merged, Collections.emptyIterator(),
+                    Function.identity(), BY_KEY)) {
+                run = SpillFile.write(directory, combineByKey(merge, entries));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to merge spilled statistics", e);
+            }
+            group.clear();
+            runs.add(from, new SpillRun(run, entries[0]));
+            spilledEntries += entries[0] - fewest;
+            for (Path file : merged) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // removed with the directory at the end of the run
+                }
+            }
+        }
+    }
+
+    private SpillFile.Merge<SpillRecord> mergeRuns() throws IOException {
+        List<SpillRecord> inMemory = new ArrayList<>(memory.size());
+        memory.forEach((key, representative, count) -> inMemory.add(new SpillRecord(key, representative, count)));
+        inMemory.sort(BY_KEY);
+        return SpillFile.merge(runs.stream().map(SpillRun::file).toList(), inMemory.iterator(),
+                Function.identity(), BY_KEY);
+    }
+
+    /**
+     * Adds up consecutive records of the same key, counting the combined records in {@code entries[0]}.
+     */
+    private static Iterator<SpillRecord> combineByKey(Iterator<SpillRecord> sorted, long[] entries) {
+        return new Iterator<>() {
+            private SpillRecord pending = sorted.hasNext() ? sorted.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return pending != null;
+            }
+
+            @Override
+            public SpillRecord next() {
+                if (pending == null) throw new NoSuchElementException();
+                SpillRecord combined = pending;
+                pending = null;
+                while (sorted.hasNext()) {
+                    SpillRecord next = sorted.next();
+                    if (!next.key().equals(combined.key())) {
+                        pending = next;
+                        break;
+                    }
+                    combined = new SpillRecord(combined.key(), combined.representative(),
+                            combined.count() + next.count());
+                }
+                entries[0]++;
+                return combined;
+            }
+        };
+    }
+
+    /**
+     * A sorted run file and the number of entries in it.
+     */
+    private record SpillRun(Path file, long entries) {
+    }
+
+    /**
+     * Iterator over the externally sorted items of {@link #sortedItems}.
+     */
+    static final class SortedItems implements Iterator<StatisticsItem>, Closeable {
+        private final SpillFile.Merge<StatisticsItem> merge;
+
+        private SortedItems(SpillFile.Merge<StatisticsItem> merge) {
+            this.merge = merge;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return merge.hasNext();
+        }
+
+        @Override
+        public StatisticsItem next() {
+            return merge.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            merge.close();
+        }
+    }
+}
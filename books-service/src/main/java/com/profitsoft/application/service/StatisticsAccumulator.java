@@ -0,0 +1,62 @@
+package com.profitsoft.application.service;
+
+/**
+ * Partial aggregation for one attribute, owned by a single worker thread (see {@link PartialStatistics}).
+ * Keys are normalized values; each key keeps the first raw spelling seen as its representative.
+ * Partials are combined with {@link #merge} once all workers are done.
+ */
+interface StatisticsAccumulator {
+
+    /**
+     * Counts a free-text value case-insensitively; blank values are ignored.
+     */
+    default void addValue(String raw) {
+        if (raw == null) return;
+        String trimmed = raw.trim();
+        if (trimmed.isEmpty()) return;
+        add(trimmed.toLowerCase(), trimmed, 1);
+    }
+
+    /**
+     * Same as {@link #addValue(String)} for text held in a shared buffer. Accumulators that can look
+     * the value up without creating a string override this.
+     */
+    default void addValue(char[] chars, int offset, int length) {
+        addValue(new String(chars, offset, length));
+    }
+
+    /**
+     * Counts a value that is already normalized (e.g. a year).
+     */
+    default void addKey(String key) {
+        add(key, key, 1);
+    }
+
+    void add(String key, String representative, long count);
+
+    void merge(StatisticsAccumulator other);
+
+    void forEach(EntryConsumer consumer);
+
+    int size();
+
+    /**
+     * Number of distinct values counted; exact unless the accumulator says otherwise.
+     */
+    default long distinctCount() {
+        return size();
+    }
+
+    /**
+     * Upper bound of the difference between a reported count and the true count,
+     * and of the true count of any value that is not reported. Zero for exact accumulators.
+     */
+    default long maxCountError() {
+        return 0;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(String key, String representative, long count);
+    }
+}
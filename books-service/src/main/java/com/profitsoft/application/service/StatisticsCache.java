@@ -0,0 +1,209 @@
+package com.profitsoft.application.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk cache of per-file partial statistics, one cache file per input file.
+ * <p>
+ * An entry is reused when the input has the same size and modification time as when it was cached.
+ * If only the modification time differs, the content checksum (CRC32C) decides, so touched or copied
+ * files are not re-parsed. Entries also record the attributes and the parsing mode they were built with.
+ * A file that changed while it was parsed is not cached.
+ */
+@Slf4j
+class StatisticsCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final List<String> attributes;
+    private final boolean projection;
+
+    StatisticsCache(Path directory, List<String> attributes, boolean projection) throws IOException {
+        this.directory = directory;
+        this.attributes = attributes;
+        this.projection = projection;
+        Files.createDirectories(directory);
+    }
+
+    record Fingerprint(long size, long modifiedMillis, long checksum) {
+    }
+
+    /**
+     * Size and modification time of the file; the checksum is computed lazily by {@link #withChecksum}.
+     */
+    Fingerprint fingerprint(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), -1);
+    }
+
+    Fingerprint withChecksum(Path file, Fingerprint fingerprint) throws IOException {
+        if (fingerprint.checksum() >= 0) return fingerprint;
+        CRC32C crc = new CRC32C();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return new Fingerprint(fingerprint.size(), fingerprint.modifiedMillis(), crc.getValue());
+    }
+
+    /**
+     * @return the cached partial for {@code file}, or {@code null} if there is no usable entry
+     */
+    PartialStatistics load(Path file, Fingerprint current) {
+        Path entryFile = entryFile(file);
+        if (!Files.isRegularFile(entryFile)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile)))) {
+            if (in.readInt() != FORMAT_VERSION) return null;
+            if (!readString(in).equals(key(file))) return null;
+            long size = in.readLong();
+            long modified = in.readLong();
+            long checksum = in.readLong();
+            if (in.readBoolean() != projection || size != current.size()) return null;
+            boolean touched = modified != current.modifiedMillis();
+            Fingerprint checked = touched ? withChecksum(file, current) : current;
+            if (touched && checked.checksum() != checksum) {
+                return null;
+            }
+            PartialStatistics partial = readPartial(in);
+            if (touched && partial != null) {
+                // same content under a new timestamp: refresh the entry so the next run skips the checksum
+                in.close();
+                store(file, checked, partial);
+            }
+            return partial;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable cache entry {}: {}", entryFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param fingerprint taken before {@code partial} was parsed; nothing is stored if the file has changed since
+     */
+    void store(Path file, Fingerprint fingerprint, PartialStatistics partial) {
+        Path entryFile = entryFile(file);
+        Path tmp = entryFile.resolveSibling(entryFile.getFileName() + ".tmp");
+        try {
+            Fingerprint fp = withChecksum(file, fingerprint);
+            // The counts and the checksum must both come from the content the fingerprint describes
+            Fingerprint now = fingerprint(file);
+            if (now.size() != fp.size() || now.modifiedMillis() != fp.modifiedMillis()) {
+                log.debug("Not caching statistics for {}: it changed while it was read", file);
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, key(file));
+                out.writeLong(fp.size());
+                out.writeLong(fp.modifiedMillis());
+                out.writeLong(fp.checksum());
+                out.writeBoolean(projection);
+                writePartial(out, partial);
+            }
+            Files.move(tmp, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to cache statistics for {}: {}", file, e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // best effort
+            }
+        }
+    }
+
+    private PartialStatistics readPartial(DataInputStream in) throws IOException {
+        PartialStatistics partial = new PartialStatistics(attributes.size());
+        partial.addBookCount(in.readLong());
+        partial.addErrorCount(in.readLong());
+        int cachedAttributes = in.readInt();
+        Map<String, StatisticsAccumulator> byName = new HashMap<>();
+        for (int i = 0; i < cachedAttributes; i++) {
+            String attribute = readString(in);
+            StatisticsAccumulator accumulator = new ExactAccumulator();
+            int entries = in.readInt();
+            for (int j = 0; j < entries; j++) {
+                String key = readString(in);
+                String representative = readString(in);
+                accumulator.add(key, representative, in.readLong());
+            }
+            byName.put(attribute, accumulator);
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            StatisticsAccumulator cached = byName.get(attributes.get(i));
+            if (cached == null) return null;
+            partial.get(i).merge(cached);
+        }
+        return partial;
+    }
+
+    private void writePartial(DataOutputStream out, PartialStatistics partial) throws IOException {
+        out.writeLong(partial.getBookCount());
+        out.writeLong(partial.getErrorCount());
+        out.writeInt(attributes.size());
+        for (int i = 0; i < attributes.size(); i++) {
+            writeString(out, attributes.get(i));
+            // size() is only an upper bound for some accumulators (a spilled key counts once per run),
+            // so the entries are buffered and their actual number is written before them
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream entries = new DataOutputStream(buffer);
+            int[] written = new int[1];
+            try {
+                partial.get(i).forEach((key, representative, count) -> {
+                    try {
+                        writeString(entries, key);
+                        writeString(entries, representative);
+                        entries.writeLong(count);
+                        written[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeInt(written[0]);
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * Length-prefixed UTF-8; unlike {@link DataOutputStream#writeUTF} it has no 64 KB limit, so one long value
+     * does not keep the whole file out of the cache.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new IOException("Invalid string length " + length);
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) throw new EOFException();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path entryFile(Path file) {
+        return directory.resolve(UUID.nameUUIDFromBytes(key(file).getBytes(StandardCharsets.UTF_8)) + ".stats");
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+}
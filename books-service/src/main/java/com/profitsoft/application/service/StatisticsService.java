@@ -2,7 +2,14 @@ package com.profitsoft.application.service;
 
 import com.profitsoft.application.entities.Book;
 import com.profitsoft.application.entities.StatisticsItem;
+import com.profitsoft.application.utils.BookFieldsBuffer;
 import com.profitsoft.application.utils.BookJsonParser;
+import com.profitsoft.application.utils.ByteRange;
+import com.profitsoft.application.utils.CompressedInput;
+import com.profitsoft.application.utils.JsonArraySplitter;
+import com.profitsoft.application.utils.JsonLinesSplitter;
+import com.profitsoft.application.utils.PivotStatisticsWriter;
+import com.profitsoft.application.utils.ReadAheadPipeline;
 import com.profitsoft.application.utils.XmlStatisticsWriter;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -12,19 +19,26 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Service responsible for scanning a directory of JSON files, parsing them (possibly in parallel),
- * aggregating statistics for a given attribute and writing the result to an XML file.
+ * aggregating statistics for one or more attributes in a single pass and writing one XML file per attribute.
  */
 @Setter
 @Getter
@@ -33,8 +47,175 @@ import java.util.stream.Collectors;
 @Slf4j
 public class StatisticsService {
 
+    public static final long DEFAULT_SPLIT_CHUNK_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Rough heap footprint of one heavy-hitter counter: key and representative strings,
+     * the counter object and its index entry.
+     */
+    static final int HEAVY_HITTER_COUNTER_BYTES = 256;
+
+    /**
+     * Order of the statistics items and of the XML output: count descending, then value case-insensitively.
+     */
+    private static final Comparator<StatisticsItem> ITEM_ORDER = Comparator
+            .comparingLong(StatisticsItem::getCount).reversed()
+            .thenComparing(StatisticsItem::getValue, String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Attributes counted by {@link #addText}, the only ones that get {@link #aggregations}.
+     */
+    private static final Set<String> TEXT_ATTRIBUTES = Set.of("title", "author", "genre");
+
+    private static final String[] YEAR_KEYS = new String[3000];
+
+    static {
+        for (int year = 0; year < YEAR_KEYS.length; year++) {
+            YEAR_KEYS[year] = String.valueOf(year);
+        }
+    }
+
+    /**
+     * Listed files waiting to be submitted, biggest first; listing pauses while this many are waiting.
+     */
+    private static final int QUEUED_FILES = 1024;
+    /**
+     * File tasks per worker submitted to the executor at once. The rest wait in {@link Run#submitFiles},
+     * so that the biggest file listed so far is the one submitted when a worker becomes free.
+     */
+    private static final int SUBMITTED_FILES_PER_WORKER = 2;
+    private static final Comparator<ListedFile> LARGEST_FIRST = Comparator
+            .comparingLong(ListedFile::size).reversed()
+            .thenComparingInt(ListedFile::sequence);
+
+    private static final int MIN_READ_AHEAD_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_READ_AHEAD_BUFFER_BYTES = 1024 * 1024;
+
     private BookJsonParser parser = new BookJsonParser();
 
+    /**
+     * When enabled, only the requested attributes are read from the token stream
+     * (see {@link BookJsonParser#scanFileFields}) instead of building full {@link Book} entities.
+     */
+    private boolean projection;
+
+    /**
+     * Files with a top-level array larger than this are split into ranges of about this size
+     * and parsed in parallel. Zero or negative disables splitting.
+     */
+    private long splitChunkBytes = DEFAULT_SPLIT_CHUNK_BYTES;
+
+    /**
+     * Directory for per-file partial results. When set, unchanged files are not parsed again
+     * on the next run; {@code null} disables the cache.
+     */
+    private File cacheDirectory;
+
+    /**
+     * When positive, each attribute keeps at most this many counters per worker and only
+     * the most frequent values are reported with approximate counts
+     * (see {@link StatisticsResult#maxCountError()}). Zero counts every value exactly.
+     * The cache is not used for approximate runs; watch mode always counts exactly.
+     */
+    private int heavyHitterCapacity;
+
+    /**
+     * When enabled, only the number of distinct values is estimated with a HyperLogLog sketch
+     * (see {@link StatisticsResult#distinctCount()}); no per-value counts are kept and the XML lists no items.
+     * Takes precedence over {@link #heavyHitterCapacity}.
+     */
+    private boolean distinctCountOnly;
+
+    /**
+     * When enabled, exact counts are kept in direct memory (see {@link OffHeapAccumulator}) instead of heap
+     * tables. Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to {@code -Xmx}.
+     */
+    private boolean offHeap;
+
+    /**
+     * When positive, exact counts spill to sorted run files once a worker holds more than this many
+     * distinct values of an attribute (see {@link SpillingAccumulator}); the XML is then written from
+     * an external sort and {@link StatisticsResult#statistics()} holds only its first this-many items.
+     */
+    private long spillThreshold;
+
+    /**
+     * Parent of the per-run spill directory; {@code null} uses {@code java.io.tmpdir}.
+     */
+    private File spillDirectory;
+
+    /**
+     * {@link ExecutorMode#VIRTUAL} runs every task on its own virtual thread; the {@code threads} argument
+     * of {@link #processDirectory} then limits how many run at once and is not capped by the processor count.
+     */
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+
+    /**
+     * With virtual threads, records virtual threads that block while pinned to their carrier
+     * (see {@link StatisticsResult#pinnedThreadEvents()}).
+     */
+    private boolean detectPinnedThreads;
+
+    /**
+     * Memory budget for bytes read ahead of parsing by {@link #readerThreads} dedicated reader threads
+     * (see {@link ReadAheadPipeline}). Zero reads on the parsing threads.
+     */
+    private long readAheadBytes;
+
+    private int readerThreads = 2;
+
+    /**
+     * Also read input files in subdirectories of the input directory.
+     */
+    private boolean recursive;
+
+    /**
+     * Glob selecting input files. It is matched against the file name, or against the path relative to the
+     * input directory when it contains a {@code /} (e.g. {@code 2024/**.json}).
+     */
+    private String inputGlob = CompressedInput.INPUT_GLOB;
+
+    /**
+     * Only books matching the filter are counted; {@code null} counts every book. The filtered attributes
+     * are projected along with the counted ones. The cache is not used for filtered runs.
+     */
+    private BookFilter filter;
+
+    /**
+     * When between 0 and 1, only about this fraction of the input is parsed for a quick preview: whole files,
+     * ranges of split files and archive entries are each drawn with this probability, and the counts are
+     * extrapolated with a 95% confidence interval per item (see {@link SampleAccumulator}). The sample is
+     * counted exactly; the cache, spilling and the approximate modes are not used. Zero or one reads everything.
+     */
+    private double sampleFraction;
+
+    /**
+     * Seed of the sample draw; runs with the same seed over the same files parse the same sample.
+     */
+    private long sampleSeed;
+
+    /**
+     * Aggregations computed per value of the {@code title}, {@code author} and {@code genre} attributes
+     * besides its count (see {@link StatisticsItem#getAggregates()}). They need exact counting and are
+     * skipped with the approximate modes, sampling and spilling; the cache is not used and watch mode
+     * does not compute them.
+     */
+    private Set<Aggregation> aggregations = EnumSet.noneOf(Aggregation.class);
+
+    public StatisticsService(BookJsonParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Number of heavy-hitter counters per attribute and worker that fits into {@code memoryBudgetBytes},
+     * counting one extra set of counters for the merged result.
+     */
+    public static int heavyHitterCapacityFor(long memoryBudgetBytes, int threads, int attributeCount) {
+        long sets = (long) (Math.max(1, threads) + 1) * Math.max(1, attributeCount);
+        long capacity = memoryBudgetBytes / HEAVY_HITTER_COUNTER_BYTES / sets;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity));
+    }
+
     /**
      * Process all JSON files in `directory` and compute statistics by `attribute`.
      *
@@ -45,77 +226,171 @@ public class StatisticsService {
      * @throws Exception on fatal errors
      */
     public StatisticsResult processDirectory(File directory, String attribute, int threads) throws Exception {
-        Objects.requireNonNull(directory, "directory");
         Objects.requireNonNull(attribute, "attribute");
+        return processDirectory(directory, List.of(attribute), threads).values().iterator().next();
+    }
+
+    /**
+     * Process all JSON files in `directory` once and compute statistics for every attribute in `attributes`.
+     * One XML file is written per attribute. Besides {@code *.json}, gzip and Zstandard compressed
+     * {@code *.json.gz} / {@code *.json.zst} files and the JSON entries of {@code *.zip} archives are read
+     * (see {@link CompressedInput}). JSON Lines files ({@code *.ndjson}, {@code *.jsonl}) hold one book
+     * object per line; large plain ones are split at line boundaries and parsed by all workers.
+     *
+     * @param directory  directory with json files
+     * @param attributes attribute names (e.g. "author","title","year_published","genre"), or pivot specifications
+     *                   such as "genre x decade(year_published)" (see {@link PivotSpec}), which are written
+     *                   as a pivot XML file and a CSV file next to it
+     * @param threads    number of threads to use
+     * @return results keyed by lower-cased attribute name, in request order
+     * @throws Exception on fatal errors
+     */
+    public Map<String, StatisticsResult> processDirectory(File directory, List<String> attributes, int threads)
+            throws Exception {
+        return processDirectory(directory, attributes, threads, null);
+    }
+
+    /**
+     * Same as {@link #processDirectory(File, List, int)}, but stops at {@code deadline}: no file is started
+     * after it, files being parsed are abandoned after the current book, and the counts aggregated so far
+     * are returned with {@link StatisticsResult#partial()} set. {@link StatisticsResult#coverage()} tells
+     * how much of the input they cover. Abandoned files are not stored in the cache.
+     *
+     * @param deadline when to stop, or {@code null} to process every file
+     */
+    public Map<String, StatisticsResult> processDirectory(File directory, List<String> attributes, int threads,
+                                                          Instant deadline) throws Exception {
+        Objects.requireNonNull(directory, "directory");
+        Objects.requireNonNull(attributes, "attributes");
         if (!directory.isDirectory()) {
             throw new IllegalArgumentException("Not a directory: " + directory);
         }
+        List<String> attrs = normalizeAttributes(attributes);
+        AttributeStrategy[] strategies = attrs.stream().map(this::getStrategy).toArray(AttributeStrategy[]::new);
 
-        List<Path> files;
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory.toPath(), "*.json")) {
-            files = new ArrayList<>();
-            for (Path p : ds) files.add(p);
+        try (InputFiles files = new InputFiles(directory.toPath(), inputGlob, recursive)) {
+            if (!files.hasNext()) {
+                log.warn("No JSON files found in directory: {}", directory);
+                Map<String, StatisticsResult> empty = new LinkedHashMap<>();
+                for (String attr : attrs) {
+                    File out = createOutputFile(attr);
+                    empty.put(attr, new StatisticsResult(0, 0L, Collections.emptyList(), 0L, 0L, 0L, 0L, out, 0, 0L,
+                            0L, 0L, List.of(), 0, false, new Coverage(0, 0, 0L, 0L)));
+                }
+                return empty;
+            }
+            return processFiles(attrs, strategies, files, threads, deadline);
         }
+    }
 
-        if (files.isEmpty()) {
-            log.warn("No JSON files found in directory: {}", directory);
-            File out = createOutputFile(attribute);
-            return new StatisticsResult(0, 0L, Collections.emptyList(), 0L, 0L, 0L, 0L, out);
+    /**
+     * @param files files still being enumerated; each is submitted as soon as it is listed
+     */
+    private Map<String, StatisticsResult> processFiles(List<String> attrs, AttributeStrategy[] strategies,
+                                                       Iterator<Path> files, int threads, Instant deadline)
+            throws Exception {
+        boolean sampling = isSampling();
+        if (sampling && (distinctCountOnly || heavyHitterCapacity > 0 || offHeap || spillThreshold > 0)) {
+            log.warn("Sampling counts the sample exactly on the heap; other counting modes are ignored");
         }
+        boolean approximate = isApproximate();
+        if (approximate && cacheDirectory != null) {
+            log.warn("Statistics cache is not used with approximate counting");
+        }
+        if (filter != null && cacheDirectory != null) {
+            log.warn("Statistics cache is not used with filters");
+        }
+        boolean aggregating = !aggregations.isEmpty();
+        if (aggregating && (approximate || spillThreshold > 0)) {
+            log.warn("Aggregations need exact in-memory counts and are not computed");
+            aggregating = false;
+        }
+        if (aggregating && cacheDirectory != null) {
+            log.warn("Statistics cache is not used with aggregations");
+        }
+        StatisticsCache cache = cacheDirectory != null && !approximate && filter == null && !aggregating
+                ? new StatisticsCache(cacheDirectory.toPath(), attrs, projection)
+                : null;
+        Supplier<StatisticsAccumulator> accumulators;
+        if (sampling) {
+            accumulators = SampleAccumulator::new;
+        } else if (distinctCountOnly) {
+            accumulators = DistinctCountAccumulator::new;
+        } else if (heavyHitterCapacity > 0) {
+            accumulators = () -> new SpaceSavingAccumulator(heavyHitterCapacity);
+        } else if (offHeap) {
+            accumulators = OffHeapAccumulator::new;
+        } else {
+            accumulators = ExactAccumulator::new;
+        }
+        Path spillRun = null;
+        if (spillThreshold > 0 && !approximate) {
+            Path base = spillDirectory != null
+                    ? spillDirectory.toPath()
+                    : Paths.get(System.getProperty("java.io.tmpdir"));
+            Files.createDirectories(base);
+            Path runDirectory = Files.createTempDirectory(base, "statistics-spill-");
+            Supplier<StatisticsAccumulator> tables = accumulators;
+            accumulators = () -> new SpillingAccumulator(runDirectory, spillThreshold, tables);
+            spillRun = runDirectory;
+        }
+        Supplier<StatisticsAccumulator> counts = accumulators;
+        IntFunction<StatisticsAccumulator> attributeAccumulators = attribute -> counts.get();
+        if (aggregating) {
+            // Only the text attributes feed AggregatingAccumulator#aggregate, see addText
+            Set<Aggregation> selected = Set.copyOf(aggregations);
+            boolean[] text = new boolean[attrs.size()];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = TEXT_ATTRIBUTES.contains(attrs.get(i));
+            }
+            attributeAccumulators = attribute -> text[attribute]
+                    ? new AggregatingAccumulator(counts.get(), selected)
+                    : counts.get();
+        }
+        try {
+            return aggregate(attrs, strategies, files, threads, deadline, cache, attributeAccumulators);
+        } finally {
+            if (spillRun != null) {
+                deleteRecursively(spillRun);
+            }
+        }
+    }
 
-        ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, String> representatives = new ConcurrentHashMap<>();
-        AtomicLong bookCount = new AtomicLong(0);
-        AtomicLong errorCount = new AtomicLong(0);
-
-        AttributeStrategy strategy = getStrategy(attribute.toLowerCase());
-
-        int maxThreads = Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors() * 2));
+    private Map<String, StatisticsResult> aggregate(List<String> attrs, AttributeStrategy[] strategies,
+                                                    Iterator<Path> files, int threads, Instant deadline,
+                                                    StatisticsCache cache,
+                                                    IntFunction<StatisticsAccumulator> accumulators)
+            throws Exception {
+        boolean virtual = executorMode == ExecutorMode.VIRTUAL;
+        int maxThreads = virtual
+                ? Math.max(1, threads)
+                : Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors() * 2));
+        Run run = new Run(strategies, projectedAttributes(attrs), cache, accumulators, maxThreads,
+                virtual ? maxThreads : 0, deadline);
 
         long parsingStart = System.currentTimeMillis();
 
-        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
-        List<Future<?>> futures = new ArrayList<>(files.size());
+        ReadAheadPipeline readAhead = readAheadBytes > 0 ? createReadAhead(maxThreads) : null;
+        parser.setReadAhead(readAhead);
+        PinnedThreadMonitor pinnedMonitor = virtual && detectPinnedThreads ? new PinnedThreadMonitor() : null;
+        long pinnedThreadEvents = 0;
+        ExecutorService executor = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newWorkStealingPool(maxThreads);
+        long workTimeMs;
+        boolean allSubmitted;
         try {
-            for (Path f : files) {
-                futures.add(executor.submit(() -> {
-                    try {
-                        parser.parseFile(f, (Book book) -> {
-                            try {
-                                strategy.process(book, counts, representatives);
-                                bookCount.incrementAndGet();
-                            } catch (Exception e) {
-                                log.error("Error processing book from {}: {}", f, e.getMessage(), e);
-                                errorCount.incrementAndGet();
-                            }
-                        });
-                    } catch (IOException e) {
-                        log.error("Failed to parse file {}: {}", f, e.getMessage(), e);
-                        errorCount.incrementAndGet();
-                    } catch (RuntimeException e) {
-                        log.error("Runtime error while parsing file {}: {}", f, e.getMessage(), e);
-                        errorCount.incrementAndGet();
-                    }
-                }));
+            try {
+                allSubmitted = run.submitFiles(executor, files);
+                // File tasks may submit chunk tasks, so wait until no task is left
+                run.awaitTasks();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Thread interrupted while waiting for parsing tasks: {}", e.getMessage(), e);
+                throw e;
             }
 
             executor.shutdown();
-
-            for (Future<?> future : futures) {
-                try {
-                     future.get();
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    String causeMsg = cause != null ? cause.getMessage() : "unknown cause";
-                    log.error("Execution error in task: {}", causeMsg, e);
-                    errorCount.incrementAndGet();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.error("Thread interrupted while waiting for parsing tasks: {}", e.getMessage(), e);
-                    throw e;
-                }
-            }
-
             if (!executor.awaitTermination(30, TimeUnit.MINUTES)) {
                 log.warn("Timed out waiting for parsing tasks; attempting shutdownNow");
                 executor.shutdownNow();
@@ -123,80 +398,924 @@ public class StatisticsService {
                     log.warn("Executor did not terminate after shutdownNow");
                 }
             }
+            workTimeMs = System.currentTimeMillis() - parsingStart;
+            if (pinnedMonitor != null) {
+                pinnedThreadEvents = pinnedMonitor.stop();
+            }
         } finally {
             if (!executor.isShutdown()) {
                 executor.shutdownNow();
             }
+            if (pinnedMonitor != null) {
+                pinnedMonitor.close();
+            }
+            if (readAhead != null) {
+                parser.setReadAhead(null);
+                readAhead.close();
+            }
         }
+        PartialStatistics total = mergePartials(run.workers.stream().map(worker -> worker.partial).toList(),
+                run.newPartial());
+        long errorCount = total.getErrorCount() + run.errorCount.get();
         long parsingEnd = System.currentTimeMillis();
         long parsingTimeMs = parsingEnd - parsingStart;
-        List<StatisticsItem> statistics = counts.entrySet().stream()
-                .map(e -> {
-                    String key = e.getKey();
-                    String display = toTitleCase(representatives.getOrDefault(key, key));
-                    return new StatisticsItem(display, e.getValue().longValue());
-                })
-                .sorted(Comparator.comparingLong(StatisticsItem::getCount).reversed()
-                        .thenComparing(StatisticsItem::getValue, String.CASE_INSENSITIVE_ORDER))
-                .collect(Collectors.toList());
-        long xmlStart = System.currentTimeMillis();
-        File out = createOutputFile(attribute);
-        new XmlStatisticsWriter().writeStatistics(out.toPath(), statistics);
-        long xmlEnd = System.currentTimeMillis();
-        long xmlTimeMs = xmlEnd - xmlStart;
-        long totalTime = parsingTimeMs + xmlTimeMs;
-
-        if (errorCount.get() > 0) {
-            log.warn("Processed with {} errors", errorCount.get());
-        }
-
-        return new StatisticsResult(files.size(), bookCount.get(), statistics,
-                parsingTimeMs, xmlTimeMs, totalTime, errorCount.get(), out);
-    }
-
-    private File createOutputFile(String attribute) {
+
+        if (errorCount > 0) {
+            log.warn("Processed with {} errors", errorCount);
+        }
+        if (pinnedThreadEvents > 0) {
+            log.warn("Virtual threads were pinned to their carrier {} times", pinnedThreadEvents);
+        }
+        if (cache != null) {
+            log.info("Reused cached statistics for {} of {} files", run.cachedFiles.get(), run.fileCount);
+        }
+        if (run.filter != null) {
+            log.info("Filter [{}] excluded {} books", run.filter, run.filteredOut.sum());
+        }
+        boolean partial = run.expired && (!allSubmitted || run.filesDone.get() < run.fileCount);
+        Coverage coverage = new Coverage(run.filesDone.get(), run.fileCount, run.bytesDone.sum(), run.bytesSeen);
+        if (partial) {
+            log.warn("Deadline reached: statistics cover {} of {} listed files ({} of {} bytes)",
+                    coverage.filesDone(), coverage.filesSeen(), coverage.bytesDone(), coverage.bytesSeen());
+        }
+        if (run.sampleFraction > 0) {
+            log.info("Sampled {} of {} input units ({} books)", run.sampledUnits.sum(),
+                    run.sampledUnits.sum() + run.skippedUnits.sum(), total.getBookCount());
+        }
+        List<WorkerTime> workerTimes = run.workerTimes(workTimeMs);
+        log.debug("Worker busy/idle times: {}", workerTimes);
+
+        Map<String, StatisticsResult> results = new LinkedHashMap<>();
+        for (int i = 0; i < attrs.size(); i++) {
+            long xmlStart = System.currentTimeMillis();
+            File out = createOutputFile(attrs.get(i));
+            long xmlDistinctCount = isApproximate() ? total.get(i).distinctCount() : -1;
+            List<StatisticsItem> statistics;
+            if (PivotSpec.isPivot(attrs.get(i))) {
+                statistics = writePivot(out, PivotSpec.parse(attrs.get(i)), total.get(i));
+            } else if (total.get(i) instanceof SpillingAccumulator spilling && spilling.hasSpilled()) {
+                statistics = writeSpilledStatistics(out, spilling);
+            } else if (total.get(i) instanceof SampleAccumulator sample) {
+                statistics = toEstimatedItems(sample);
+                new XmlStatisticsWriter().writeStatistics(out.toPath(), statistics, xmlDistinctCount);
+            } else {
+                statistics = toStatisticsItems(total.get(i));
+                new XmlStatisticsWriter().writeStatistics(out.toPath(), statistics, xmlDistinctCount);
+            }
+            // After the output was written: spilled counts know their distinct keys from the merge
+            long distinctCount = total.get(i).distinctCount();
+            long xmlTimeMs = System.currentTimeMillis() - xmlStart;
+            results.put(attrs.get(i), new StatisticsResult(run.fileCount, total.getBookCount(), statistics,
+                    parsingTimeMs, xmlTimeMs, parsingTimeMs + xmlTimeMs, errorCount, out, run.cachedFiles.get(),
+                    total.get(i).maxCountError(), distinctCount, pinnedThreadEvents, workerTimes, run.sampleFraction, partial,
+                    coverage));
+        }
+        return results;
+    }
+
+    /**
+     * Sizes buffers so that every parsing thread can have at least two of them in flight within the budget.
+     */
+    private ReadAheadPipeline createReadAhead(int parserThreads) {
+        int bufferSize = (int) Math.max(MIN_READ_AHEAD_BUFFER_BYTES,
+                Math.min(MAX_READ_AHEAD_BUFFER_BYTES, readAheadBytes / (2L * parserThreads)));
+        int buffersPerStream = (int) Math.max(2, Math.min(64, readAheadBytes / bufferSize / parserThreads));
+        return new ReadAheadPipeline(Math.max(1, readerThreads), bufferSize, readAheadBytes, buffersPerStream);
+    }
+
+    /**
+     * Lower-cases and de-duplicates attribute names, keeping the request order. Pivot specifications
+     * (see {@link PivotSpec}) are normalized to {@link PivotSpec#name()}.
+     */
+    List<String> normalizeAttributes(List<String> attributes) {
+        List<String> attrs = attributes.stream()
+                .map(a -> Objects.requireNonNull(a, "attribute").toLowerCase())
+                .map(a -> PivotSpec.isPivot(a) ? PivotSpec.parse(a).name() : a)
+                .distinct()
+                .toList();
+        if (attrs.isEmpty()) {
+            throw new IllegalArgumentException("At least one attribute is required");
+        }
+        attrs.forEach(this::getStrategy);
+        return attrs;
+    }
+
+    /**
+     * Fields read for the counted attributes, the {@link #filter} and the {@link #aggregations}.
+     */
+    private Set<String> projectedAttributes(List<String> attributes) {
+        Set<String> projected = new HashSet<>();
+        for (String attribute : attributes) {
+            if (PivotSpec.isPivot(attribute)) {
+                projected.addAll(PivotSpec.parse(attribute).attributes());
+            } else {
+                projected.add(attribute.equals("genre_pair") ? "genre" : attribute);
+            }
+        }
+        if (filter != null) {
+            projected.addAll(filter.attributes());
+        }
+        if (aggregations.contains(Aggregation.YEAR)) {
+            projected.add("year_published");
+        }
+        if (aggregations.contains(Aggregation.DISTINCT_AUTHORS)) {
+            projected.add("author");
+        }
+        return Set.copyOf(projected);
+    }
+
+    /**
+     * Parses a single file into a fresh partial, without splitting or caching. Used by {@link StatisticsWatcher}.
+     */
+    PartialStatistics parseFile(Path file, List<String> attributes) {
+        AttributeStrategy[] strategies = attributes.stream().map(this::getStrategy).toArray(AttributeStrategy[]::new);
+        Run run = new Run(strategies, projectedAttributes(attributes), null, attribute -> new ExactAccumulator(), 1,
+                0, null);
+        PartialStatistics partial = run.newPartial();
+        run.parse(file, null, partial);
+        return partial;
+    }
+
+    List<StatisticsItem> toStatisticsItems(StatisticsAccumulator accumulator) {
+        List<StatisticsItem> items = new ArrayList<>(accumulator.size());
+        AggregatingAccumulator aggregating = accumulator instanceof AggregatingAccumulator a ? a : null;
+        accumulator.forEach((key, representative, count) ->
+                items.add(new StatisticsItem(toTitleCase(representative), count, 0, 0,
+                        aggregating != null ? aggregating.aggregates(key) : null)));
+        items.sort(ITEM_ORDER);
+        return items;
+    }
+
+    /**
+     * Items with counts extrapolated from the sample and their confidence intervals.
+     */
+    private List<StatisticsItem> toEstimatedItems(SampleAccumulator sample) {
+        List<StatisticsItem> items = new ArrayList<>(sample.size());
+        sample.forEachEstimate(sampleFraction, (key, representative, estimate, lowerBound, upperBound) ->
+                items.add(new StatisticsItem(toTitleCase(representative), estimate, lowerBound, upperBound,
+                        null)));
+        items.sort(ITEM_ORDER);
+        return items;
+    }
+
+    /**
+     * Writes the cells of a pivot in row order, to the XML file and to a CSV file next to it. The cells
+     * are held in memory to be sorted; in a sampling run their counts are extrapolated.
+     *
+     * @return the cells as items valued {@code <row> x <column>}, in row and column order
+     */
+    private List<StatisticsItem> writePivot(File out, PivotSpec pivot, StatisticsAccumulator accumulator)
+            throws Exception {
+        List<PivotCell> cells = new ArrayList<>(accumulator.size());
+        if (accumulator instanceof SampleAccumulator sample) {
+            sample.forEachEstimate(sampleFraction, (key, representative, estimate, lowerBound, upperBound) ->
+                    cells.add(new PivotCell(key, representative, estimate)));
+        } else {
+            accumulator.forEach((key, representative, count) -> cells.add(new PivotCell(key, representative, count)));
+        }
+        cells.sort(Comparator.comparing(PivotCell::key));
+        List<StatisticsItem> items = new ArrayList<>(cells.size());
+        Path csv = out.toPath().resolveSibling(out.getName().replaceFirst("\\.xml$", "") + ".csv");
+        try (PivotStatisticsWriter writer = new PivotStatisticsWriter(out.toPath(), csv, pivot.rows(),
+                pivot.columns())) {
+            for (PivotCell cell : cells) {
+                String[] parts = PivotSpec.split(cell.representative());
+                String row = toTitleCase(parts[0]);
+                String column = toTitleCase(parts[1]);
+                writer.write(row, column, cell.count());
+                items.add(new StatisticsItem(row + " x " + column, cell.count()));
+            }
+        }
+        return items;
+    }
+
+    private record PivotCell(String key, String representative, long count) {
+    }
+
+    private boolean isSampling() {
+        return sampleFraction > 0 && sampleFraction < 1;
+    }
+
+    /**
+     * Whether values are sampled, only counted as distinct or kept as heavy hitters. Only these runs record
+     * the distinct count in the XML, where the listed items do not show it.
+     */
+    private boolean isApproximate() {
+        return isSampling() || distinctCountOnly || heavyHitterCapacity > 0;
+    }
+
+    /**
+     * Streams the externally sorted items into the XML file, keeping only the first
+     * {@link #spillThreshold} of them in memory for the result.
+     */
+    private List<StatisticsItem> writeSpilledStatistics(File out, SpillingAccumulator accumulator)
+            throws Exception {
+        List<StatisticsItem> head = new ArrayList<>();
+        try (SpillingAccumulator.SortedItems items = accumulator.sortedItems(this::toTitleCase, ITEM_ORDER)) {
+            Iterable<StatisticsItem> all = () -> new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return items.hasNext();
+                }
+
+                @Override
+                public StatisticsItem next() {
+                    StatisticsItem item = items.next();
+                    if (head.size() < spillThreshold) head.add(item);
+                    return item;
+                }
+            };
+            new XmlStatisticsWriter().writeStatistics(out.toPath(), all, -1);
+        }
+        return head;
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Could not delete {}: {}", path, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Merges worker partials into the largest one, so its entries are not copied.
+     */
+    private PartialStatistics mergePartials(List<PartialStatistics> partials, PartialStatistics empty) {
+        PartialStatistics total = partials.stream()
+                .max(Comparator.comparingInt(PartialStatistics::size))
+                .orElse(empty);
+        for (PartialStatistics partial : partials) {
+            if (partial != total) total.merge(partial);
+        }
+        return total;
+    }
+
+    File createOutputFile(String attribute) {
         String safe = attribute.replaceAll("[^a-zA-Z0-9_\\-]", "_").toLowerCase();
         return Paths.get("").toAbsolutePath().resolve("statistics_by_" + safe + ".xml").toFile();
     }
 
+    /**
+     * State of a single {@link #processDirectory} run shared by its tasks.
+     */
+    private final class Run {
+
+        private final AttributeStrategy[] strategies;
+        private final Set<String> projected;
+        private final StatisticsCache cache;
+        private final IntFunction<StatisticsAccumulator> accumulators;
+
+        /**
+         * Each worker thread aggregates into its own partial; they are merged once parsing is done.
+         * On virtual threads a task borrows one of the {@link #slots} workers for as long as it runs instead.
+         */
+        private final List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<Worker> localWorker;
+        private final Semaphore limiter;
+        private final Queue<Worker> slots = new ConcurrentLinkedQueue<>();
+        /**
+         * Permits for file tasks submitted to the executor, waiting or running; see {@link #submitFiles}.
+         */
+        private final Semaphore submittedFiles;
+        /**
+         * Submitted tasks that have not finished yet; {@link #awaitTasks} waits on it.
+         */
+        private final AtomicLong pendingTasks = new AtomicLong();
+        private int fileCount;
+        private long bytesSeen;
+        /**
+         * Files and bytes fully processed, see {@link Coverage}.
+         */
+        private final AtomicInteger filesDone = new AtomicInteger();
+        private final LongAdder bytesDone = new LongAdder();
+        private final Instant deadline;
+        /**
+         * Set once the {@link #deadline} has passed; tasks then stop at the next book.
+         */
+        private volatile boolean expired;
+        /**
+         * Errors raised outside of file parsing (task failures, splitting errors).
+         */
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicInteger cachedFiles = new AtomicInteger();
+        private final BookFilter filter = StatisticsService.this.filter;
+        /**
+         * Books dropped by the {@link #filter}.
+         */
+        private final LongAdder filteredOut = new LongAdder();
+        /**
+         * Probability with which each unit of input is parsed; zero when everything is parsed.
+         */
+        private final double sampleFraction = isSampling() ? StatisticsService.this.sampleFraction : 0;
+        private final LongAdder sampledUnits = new LongAdder();
+        private final LongAdder skippedUnits = new LongAdder();
+
+        /**
+         * @param workerCount      number of tasks that can run in parallel
+         * @param concurrencyLimit maximum number of tasks running at once, zero when the executor is bounded itself
+         * @param deadline         when to stop, or {@code null}
+         */
+        Run(AttributeStrategy[] strategies, Set<String> projected, StatisticsCache cache,
+            IntFunction<StatisticsAccumulator> accumulators, int workerCount, int concurrencyLimit,
+            Instant deadline) {
+            this.strategies = strategies;
+            this.projected = projected;
+            this.cache = cache;
+            this.accumulators = accumulators;
+            this.submittedFiles = new Semaphore(workerCount * SUBMITTED_FILES_PER_WORKER);
+            this.limiter = concurrencyLimit > 0 ? new Semaphore(concurrencyLimit) : null;
+            this.deadline = deadline;
+            this.localWorker = ThreadLocal.withInitial(() -> {
+                synchronized (workers) {
+                    Worker worker = new Worker(workers.size() + 1, newPartial());
+                    workers.add(worker);
+                    return worker;
+                }
+            });
+        }
+
+        PartialStatistics localPartial() {
+            return localWorker.get().partial;
+        }
+
+        PartialStatistics newPartial() {
+            return new PartialStatistics(strategies.length, accumulators);
+        }
+
+        /**
+         * Whether a unit of input is part of the sample. The draw depends only on the seed, the file and the
+         * offset of the unit within it, so runs with the same seed parse the same units.
+         */
+        boolean sampled(String file, long offset) {
+            if (sampleFraction == 0) return true;
+            long seed = sampleSeed ^ (31L * file.hashCode() + offset) * 0x9E3779B97F4A7C15L;
+            boolean sampled = new SplittableRandom(seed).nextDouble() < sampleFraction;
+            (sampled ? sampledUnits : skippedUnits).increment();
+            return sampled;
+        }
+
+        /**
+         * Partial a unit of input is parsed into: the worker partial, or in a sampling run a partial of its
+         * own that {@link #unitDone} merges into the worker partial as one sampled unit.
+         */
+        PartialStatistics unitPartial() {
+            return sampleFraction > 0 ? new PartialStatistics(strategies.length) : localPartial();
+        }
+
+        void unitDone(PartialStatistics unit) {
+            if (sampleFraction > 0) localPartial().merge(unit);
+        }
+
+        /**
+         * Milliseconds until the {@link #deadline}, {@link Long#MAX_VALUE} without one.
+         * Marks the run {@link #expired} once the deadline has passed.
+         */
+        long remainingMillis() {
+            if (deadline == null) return Long.MAX_VALUE;
+            long remaining = Duration.between(Instant.now(), deadline).toMillis();
+            if (remaining <= 0) expired = true;
+            return Math.max(0, remaining);
+        }
+
+        /**
+         * Submits the files while they are listed, in longest-processing-time-first order: listed files wait in
+         * a queue of up to {@link #QUEUED_FILES} files, and whenever fewer than
+         * {@link #SUBMITTED_FILES_PER_WORKER} file tasks per worker are submitted, the biggest waiting file is
+         * submitted next. A large file listed last thus does not keep one worker busy after the others have run
+         * out of work, while the first tasks start as soon as the first files are listed. Compressed files and
+         * archives are ordered by their size on disk; files of equal size keep the listing order. The deadline
+         * is checked for every listed file.
+         *
+         * @return {@code false} if the deadline passed before every file was submitted
+         */
+        boolean submitFiles(ExecutorService executor, Iterator<Path> files) throws InterruptedException {
+            PriorityQueue<ListedFile> listed = new PriorityQueue<>(LARGEST_FIRST);
+            int sequence = 0;
+            while (files.hasNext() || !listed.isEmpty()) {
+                long remaining = remainingMillis();
+                if (remaining == 0) return false;
+                if (!listed.isEmpty() && submittedFiles.tryAcquire()) {
+                    submitFile(executor, listed.poll());
+                } else if (files.hasNext() && listed.size() < QUEUED_FILES) {
+                    Path file = files.next();
+                    listed.add(new ListedFile(file, sizeOf(file), sequence++));
+                } else if (submittedFiles.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+                    submitFile(executor, listed.poll());
+                } else {
+                    expired = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Submits a file task; the caller holds one of the {@link #submittedFiles} permits, which the task
+         * returns when it is done.
+         */
+        private void submitFile(ExecutorService executor, ListedFile file) {
+            fileCount++;
+            bytesSeen += file.size();
+            submit(executor, () -> {
+                try {
+                    processFile(executor, file.path(), file.size());
+                } finally {
+                    submittedFiles.release();
+                }
+            });
+        }
+
+        private static long sizeOf(Path file) {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        void fileDone(long size) {
+            filesDone.incrementAndGet();
+            bytesDone.add(size);
+        }
+
+        /**
+         * Runs the task without keeping a future for it: failures are counted in {@link #errorCount}.
+         */
+        void submit(ExecutorService executor, Runnable task) {
+            pendingTasks.incrementAndGet();
+            Runnable measured = limiter == null ? () -> runTimed(task) : () -> runLimited(task);
+            executor.execute(() -> {
+                try {
+                    measured.run();
+                } catch (RuntimeException | Error e) {
+                    log.error("Execution error in task: {}", e.getMessage(), e);
+                    errorCount.incrementAndGet();
+                } finally {
+                    if (pendingTasks.decrementAndGet() == 0) {
+                        synchronized (pendingTasks) {
+                            pendingTasks.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until every submitted task has finished. Tasks submit their subtasks before they finish,
+         * so the count only drops to zero once the whole run is done. Wakes up at the deadline to mark
+         * the run {@link #expired}, after which the remaining tasks finish quickly.
+         */
+        void awaitTasks() throws InterruptedException {
+            synchronized (pendingTasks) {
+                while (pendingTasks.get() > 0) {
+                    long remaining = remainingMillis();
+                    if (expired) {
+                        pendingTasks.wait();
+                    } else {
+                        pendingTasks.wait(remaining);
+                    }
+                }
+            }
+        }
+
+        private void runLimited(Runnable task) {
+            limiter.acquireUninterruptibly();
+            Worker slot = slots.poll();
+            try {
+                if (slot != null) localWorker.set(slot);
+                runTimed(task);
+            } finally {
+                slots.add(localWorker.get());
+                localWorker.remove();
+                limiter.release();
+            }
+        }
+
+        private void runTimed(Runnable task) {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                localWorker.get().busyNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * @param wallTimeMs time from the first submitted task until all tasks were done
+         */
+        List<WorkerTime> workerTimes(long wallTimeMs) {
+            synchronized (workers) {
+                return workers.stream()
+                        .map(worker -> {
+                            long busyMs = TimeUnit.NANOSECONDS.toMillis(worker.busyNanos);
+                            return new WorkerTime(worker.id, busyMs, Math.max(0, wallTimeMs - busyMs));
+                        })
+                        .toList();
+            }
+        }
+
+        /**
+         * Reuses the cached partial of an unchanged file, otherwise parses the file,
+         * splitting it into ranges when it is larger than {@link #splitChunkBytes}.
+         */
+        void processFile(ExecutorService executor, Path file, long size) {
+            if (expired) return;
+            StatisticsCache.Fingerprint fingerprint = null;
+            if (cache != null) {
+                try {
+                    fingerprint = cache.fingerprint(file);
+                    PartialStatistics cached = cache.load(file, fingerprint);
+                    if (cached != null) {
+                        localPartial().merge(cached);
+                        cachedFiles.incrementAndGet();
+                        fileDone(size);
+                        return;
+                    }
+                } catch (IOException e) {
+                    log.warn("Cannot check cache for {}: {}", file, e.getMessage());
+                }
+            }
+            if (CompressedInput.isArchive(file)) {
+                submitEntries(executor, file, size, fingerprint);
+                return;
+            }
+            if (submitChunks(executor, file, size, fingerprint)) {
+                return;
+            }
+            if (cache == null || fingerprint == null) {
+                if (!sampled(file.toString(), 0)) {
+                    fileDone(size);
+                    return;
+                }
+                PartialStatistics unit = unitPartial();
+                if (parse(file, null, unit)) fileDone(size);
+                unitDone(unit);
+                return;
+            }
+            PartialStatistics filePartial = newPartial();
+            if (parse(file, null, filePartial)) {
+                cache.store(file, fingerprint, filePartial);
+                fileDone(size);
+            }
+            localPartial().merge(filePartial);
+        }
+
+        /**
+         * Splits a file larger than {@link #splitChunkBytes} into element-aligned byte ranges
+         * and submits one task per range. Ranges are submitted while the file is still being scanned.
+         *
+         * @return {@code false} if the file should be parsed as a whole instead
+         */
+        private boolean submitChunks(ExecutorService executor, Path file, long size,
+                                     StatisticsCache.Fingerprint fingerprint) {
+            if (splitChunkBytes <= 0 || CompressedInput.isCompressed(file.getFileName().toString())) return false;
+            SplitFile split = new SplitFile(file, size, fingerprint, null);
+            try {
+                if (Files.size(file) <= splitChunkBytes) return false;
+                Consumer<ByteRange> submitChunk = range -> {
+                    if (expired) throw DeadlineExceeded.INSTANCE;
+                    if (!sampled(file.toString(), range.start())) {
+                        split.rangeDone(range);
+                        return;
+                    }
+                    split.submitted++;
+                    split.pending.incrementAndGet();
+                    submit(executor, () -> split.parseChunk(range));
+                };
+                boolean splittable = true;
+                if (BookJsonParser.isJsonLines(file.getFileName().toString())) {
+                    JsonLinesSplitter.split(file, splitChunkBytes, submitChunk);
+                } else {
+                    splittable = JsonArraySplitter.split(file, splitChunkBytes, submitChunk);
+                }
+                if (splittable) {
+                    log.debug("Split {} into {} chunks", file, split.submitted);
+                    split.chunkDone(null);
+                }
+                return splittable;
+            } catch (IOException e) {
+                if (split.submitted == 0) {
+                    log.warn("Could not split {}, parsing it as a whole: {}", file, e.getMessage());
+                    return false;
+                }
+                log.error("Failed to split file {}: {}", file, e.getMessage(), e);
+                errorCount.incrementAndGet();
+                split.abandon();
+                split.chunkDone(null);
+                return true;
+            } catch (DeadlineExceeded e) {
+                split.abandon();
+                split.chunkDone(null);
+                return true;
+            }
+        }
+
+        /**
+         * Submits one task per book entry of a zip archive, so the entries of one archive are parsed
+         * by several workers. The archive stays open until its last entry is done.
+         */
+        private void submitEntries(ExecutorService executor, Path file, long size,
+                                   StatisticsCache.Fingerprint fingerprint) {
+            ZipFile zip;
+            try {
+                zip = new ZipFile(file.toFile());
+            } catch (IOException e) {
+                log.error("Failed to open archive {}: {}", file, e.getMessage(), e);
+                errorCount.incrementAndGet();
+                return;
+            }
+            SplitFile archive = new SplitFile(file, size, fingerprint, zip);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !CompressedInput.isBookInput(entry.getName())) continue;
+                if (!sampled(file + "!/" + entry.getName(), 0)) continue;
+                archive.submitted++;
+                archive.pending.incrementAndGet();
+                submit(executor, () -> archive.parseEntry(entry));
+            }
+            log.debug("Submitted {} entries of {}", archive.submitted, file);
+            archive.chunkDone(null);
+        }
+
+        /**
+         * @return {@code false} if parsing was abandoned at the deadline
+         */
+        boolean parse(Path file, ByteRange range, PartialStatistics target) {
+            return parse(file.toString(), target, handler -> {
+                if (projection) {
+                    parser.scanFileFields(file, range, projected, handler);
+                } else {
+                    parser.parseFile(file, range, books(handler));
+                }
+            });
+        }
+
+        boolean parseEntry(String name, ReadAheadPipeline.Source source, PartialStatistics target) {
+            return parse(name, target, handler -> {
+                if (projection) {
+                    parser.scanEntryFields(name, source, projected, handler);
+                } else {
+                    parser.parseEntry(name, source, books(handler));
+                }
+            });
+        }
+
+        private boolean parse(String file, PartialStatistics target, BookScan scan) {
+            if (expired) return false;
+            Consumer<BookFieldsBuffer> handler = fields -> {
+                if (expired) throw DeadlineExceeded.INSTANCE;
+                try {
+                    if (filter != null && !filter.test(fields)) {
+                        filteredOut.increment();
+                        return;
+                    }
+                    for (int i = 0; i < strategies.length; i++) {
+                        strategies[i].process(fields, target.get(i));
+                    }
+                    target.incrementBookCount();
+                } catch (Exception e) {
+                    log.error("Error processing book from {}: {}", file, e.getMessage(), e);
+                    target.incrementErrorCount();
+                }
+            };
+            try {
+                scan.run(handler);
+            } catch (DeadlineExceeded e) {
+                log.debug("Stopped parsing {} at the deadline", file);
+                return false;
+            } catch (IOException e) {
+                log.error("Failed to parse file {}: {}", file, e.getMessage(), e);
+                target.incrementErrorCount();
+            } catch (RuntimeException e) {
+                log.error("Runtime error while parsing file {}: {}", file, e.getMessage(), e);
+                target.incrementErrorCount();
+            }
+            return true;
+        }
+
+        /**
+         * Adapts entity parsing to the buffer handler, refilling one buffer per book.
+         */
+        private static Consumer<Book> books(Consumer<BookFieldsBuffer> handler) {
+            BookFieldsBuffer buffer = new BookFieldsBuffer();
+            return book -> {
+                buffer.fill(book);
+                handler.accept(buffer);
+            };
+        }
+
+        /**
+         * A file parsed as several ranges, or a zip archive parsed entry by entry. Without a cache the parts
+         * go straight into the worker partials; with a cache they are collected and the last finished part
+         * stores the whole-file partial.
+         */
+        private final class SplitFile {
+            private final Path file;
+            private final long size;
+            private final StatisticsCache.Fingerprint fingerprint;
+            /**
+             * Open archive shared by the entry tasks, closed after the last one; {@code null} for ranges.
+             */
+            private final ZipFile archive;
+            private final List<PartialStatistics> chunks = Collections.synchronizedList(new ArrayList<>());
+            /**
+             * Ranges still being parsed, plus one while the file is being scanned.
+             */
+            private final AtomicInteger pending = new AtomicInteger(1);
+            private volatile boolean cacheable;
+            /**
+             * Cleared when a part was not parsed completely, because of the deadline or a splitting error.
+             */
+            private volatile boolean complete = true;
+            private final AtomicLong rangeBytes = new AtomicLong();
+            private int submitted;
+
+            SplitFile(Path file, long size, StatisticsCache.Fingerprint fingerprint, ZipFile archive) {
+                this.file = file;
+                this.size = size;
+                this.fingerprint = fingerprint;
+                this.archive = archive;
+                this.cacheable = cache != null && fingerprint != null;
+            }
+
+            /**
+             * Ranges count their bytes as they are done; the bytes between them are added once the file is done.
+             */
+            void rangeDone(ByteRange range) {
+                rangeBytes.addAndGet(range.length());
+                bytesDone.add(range.length());
+            }
+
+            void abandon() {
+                complete = false;
+                cacheable = false;
+            }
+
+            void parseChunk(ByteRange range) {
+                boolean collect = cacheable;
+                PartialStatistics target = collect ? newPartial() : unitPartial();
+                boolean parsed = false;
+                try {
+                    parsed = parse(file, range, target);
+                } finally {
+                    if (parsed) {
+                        rangeDone(range);
+                    } else {
+                        abandon();
+                    }
+                    if (!collect) unitDone(target);
+                    chunkDone(collect ? target : null);
+                }
+            }
+
+            void parseEntry(ZipEntry entry) {
+                boolean collect = cacheable;
+                PartialStatistics target = collect ? newPartial() : unitPartial();
+                boolean parsed = false;
+                try {
+                    parsed = Run.this.parseEntry(file + "!/" + entry.getName(), () -> archive.getInputStream(entry),
+                            target);
+                } finally {
+                    if (!parsed) abandon();
+                    if (!collect) unitDone(target);
+                    chunkDone(collect ? target : null);
+                }
+            }
+
+            void chunkDone(PartialStatistics chunk) {
+                if (chunk != null) chunks.add(chunk);
+                if (pending.decrementAndGet() > 0) return;
+                if (archive != null) {
+                    try {
+                        archive.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close archive {}: {}", file, e.getMessage());
+                    }
+                }
+                if (complete) {
+                    fileDone(size - rangeBytes.get());
+                }
+                if (chunks.isEmpty()) return;
+                PartialStatistics filePartial = newPartial();
+                chunks.forEach(filePartial::merge);
+                if (cacheable) {
+                    cache.store(file, fingerprint, filePartial);
+                }
+                localPartial().merge(filePartial);
+            }
+        }
+    }
+
+    /**
+     * Partial statistics and busy time of one worker thread, or of one concurrency slot on virtual threads.
+     * Only the thread running a task of the worker touches it.
+     */
+    private static final class Worker {
+        private final int id;
+        private final PartialStatistics partial;
+        private long busyNanos;
+
+        Worker(int id, PartialStatistics partial) {
+            this.id = id;
+            this.partial = partial;
+        }
+    }
+
+    /**
+     * A listed file waiting to be submitted; {@code sequence} is its position in the listing.
+     */
+    private record ListedFile(Path path, long size, int sequence) {
+    }
+
+    /**
+     * Thrown from the book handler once the deadline has passed, to abandon the file being parsed.
+     */
+    private static final class DeadlineExceeded extends RuntimeException {
+        static final DeadlineExceeded INSTANCE = new DeadlineExceeded();
+
+        private DeadlineExceeded() {
+            super("Deadline exceeded", null, false, false);
+        }
+    }
+
     private interface AttributeStrategy {
-        void process(Book book, ConcurrentHashMap<String, LongAdder> counts,
-                     ConcurrentHashMap<String, String> representatives);
+        void process(BookFieldsBuffer book, StatisticsAccumulator accumulator);
+    }
+
+    @FunctionalInterface
+    private interface BookScan {
+        void run(Consumer<BookFieldsBuffer> handler) throws IOException;
     }
 
     private AttributeStrategy getStrategy(String attribute) {
         return switch (attribute) {
-            case "genre" -> (book, counts, representatives) -> {
-                List<String> genres = book.getGenres();
-                if (genres != null) {
-                    for (String g : genres) {
-                        processValue(g, counts, representatives);
-                    }
+            case "genre" -> (book, accumulator) -> addText(book, BookFieldsBuffer.GENRE, accumulator);
+            case "author" -> (book, accumulator) -> addText(book, BookFieldsBuffer.AUTHOR, accumulator);
+            case "title" -> (book, accumulator) -> addText(book, BookFieldsBuffer.TITLE, accumulator);
+            case "genre_pair" -> StatisticsService::addGenrePairs;
+            case "year_published" -> (book, accumulator) -> {
+                if (book.hasYearPublished()) {
+                    accumulator.addKey(yearKey(book.yearPublishedValue()));
                 }
             };
-            case "author" ->
-                    (book, counts,
-                     representatives) -> processValue(book.getAuthorName(), counts, representatives);
-            case "title" -> (book, counts,
-                             representatives) -> processValue(book.getTitle(), counts, representatives);
-            case "year_published" -> (book, counts, representatives) -> {
-                Integer y = book.getYearPublished();
-                if (y != null) {
-                    String key = String.valueOf(y);
-                    counts.computeIfAbsent(key, k -> new LongAdder()).increment();
-                    representatives.putIfAbsent(key, key);
+            default -> {
+                if (!PivotSpec.isPivot(attribute)) {
+                    throw new IllegalArgumentException("Unsupported attribute: " + attribute);
                 }
-            };
-            default -> throw new IllegalArgumentException("Unsupported attribute: " + attribute);
+                yield PivotSpec.parse(attribute)::count;
+            }
         };
     }
 
-    private void processValue(String raw, ConcurrentHashMap<String, LongAdder> counts,
-                              ConcurrentHashMap<String, String> representatives) {
-        if (raw == null || raw.trim().isEmpty()) return;
-        String normalized = raw.trim().toLowerCase();
-        representatives.putIfAbsent(normalized, raw.trim());
-        counts.computeIfAbsent(normalized, k -> new LongAdder()).increment();
+    private static void addText(BookFieldsBuffer book, int field, StatisticsAccumulator accumulator) {
+        for (int i = 0; i < book.segmentCount(); i++) {
+            if (book.field(i) == field) {
+                accumulator.addValue(book.chars(), book.start(i), book.length(i));
+            }
+        }
+        if (accumulator instanceof AggregatingAccumulator aggregating) {
+            aggregating.aggregate(book, field);
+        }
+    }
+
+    /**
+     * Counts every unordered pair of distinct genres of a book once, keyed by the two genre keys in
+     * alphabetical order, e.g. {@code drama + fiction}.
+     */
+    private static void addGenrePairs(BookFieldsBuffer book, StatisticsAccumulator accumulator) {
+        TreeMap<String, String> genres = new TreeMap<>();
+        char[] chars = book.chars();
+        for (int i = 0; i < book.segmentCount(); i++) {
+            if (book.field(i) != BookFieldsBuffer.GENRE) continue;
+            int end = KeyFolding.trimEnd(chars, book.start(i), book.start(i) + book.length(i));
+            int start = KeyFolding.trimStart(chars, book.start(i), end);
+            if (start == end) continue;
+            String genre = new String(chars, start, end - start);
+            genres.putIfAbsent(genre.toLowerCase(), genre);
+        }
+        if (genres.size() < 2) return;
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(genres.entrySet());
+        for (int i = 0; i < sorted.size(); i++) {
+            for (int j = i + 1; j < sorted.size(); j++) {
+                accumulator.add(sorted.get(i).getKey() + " + " + sorted.get(j).getKey(),
+                        sorted.get(i).getValue() + " + " + sorted.get(j).getValue(), 1);
+            }
+        }
+    }
+
+    /**
+     * Keys of common years are created once instead of once per book.
+     */
+    private static String yearKey(int year) {
+        return year >= 0 && year < YEAR_KEYS.length ? YEAR_KEYS[year] : String.valueOf(year);
     }
 
     private String toTitleCase(String input) {
@@ -206,6 +1325,21 @@ public class StatisticsService {
                 .collect(Collectors.joining(" "));
     }
 
+    /**
+     * @param cachedFileCount files whose statistics were taken from the cache instead of being parsed
+     * @param maxCountError   for heavy-hitter runs, the most a reported count can exceed the true count
+     *                        and the most a value missing from {@code statistics} can occur; zero when exact
+     * @param distinctCount   number of distinct values; a HyperLogLog estimate for approximate runs
+     * @param pinnedThreadEvents times a virtual thread blocked while pinned to its carrier,
+     *                        when {@link #detectPinnedThreads} is enabled
+     * @param workerTimes     busy and idle time of each worker while files were parsed; a long idle time
+     *                        on most workers means the run waited on a few large files
+     * @param sampleFraction  for sampling runs, the fraction of input units drawn; the counts in
+     *                        {@code statistics} are extrapolated and have confidence intervals, while
+     *                        {@code bookCount} and {@code distinctCount} cover the sample only. Zero when exact
+     * @param partial         the deadline passed before all input was processed; the counts cover only
+     *                        the books read until then
+     */
     public record StatisticsResult(
             int fileCount,
             long bookCount,
@@ -214,7 +1348,59 @@ public class StatisticsService {
             long xmlTimeMs,
             long totalTimeMs,
             long errorCount,
-            File outputFile
+            File outputFile,
+            int cachedFileCount,
+            long maxCountError,
+            long distinctCount,
+            long pinnedThreadEvents,
+            List<WorkerTime> workerTimes,
+            double sampleFraction,
+            boolean partial,
+            Coverage coverage
     ) {
     }
-}
\ No newline at end of file
+
+    /**
+     * How much of the input a run got through. Files are listed until the deadline, so files never listed
+     * are not part of the {@code Seen} figures. In watch mode, which does not track sizes, both byte figures
+     * are {@code -1}.
+     *
+     * @param filesDone files processed completely, taken from the cache or left out of a sample
+     * @param filesSeen files listed and submitted
+     * @param bytesDone size of the files done plus the completed ranges of split files; sizes are on disk,
+     *                  i.e. compressed for compressed files
+     * @param bytesSeen size of the files submitted
+     */
+    public record Coverage(int filesDone, int filesSeen, long bytesDone, long bytesSeen) {
+    }
+
+    /**
+     * @param worker numbered from 1; with virtual threads a worker is one of the concurrently running slots
+     * @param idleMs parsing time the worker spent without a task, including time before it started
+     */
+    public record WorkerTime(int worker, long busyMs, long idleMs) {
+    }
+
+    public enum Aggregation {
+        /**
+         * Earliest, latest and mean {@code year_published} of the books with the value.
+         */
+        YEAR,
+        /**
+         * Number of distinct authors of the books with the value, e.g. per genre.
+         */
+        DISTINCT_AUTHORS
+    }
+
+    public enum ExecutorMode {
+        /**
+         * Work-stealing pool of platform threads, at most twice the number of processors. Chunks of a split
+         * file are queued on the worker that split it and taken over by idle workers.
+         */
+        PLATFORM,
+        /**
+         * One virtual thread per task, for directories on slow or network storage where tasks mostly wait on I/O.
+         */
+        VIRTUAL
+    }
+}
@@ -0,0 +1,198 @@
+package com.profitsoft.application.service;
+
+import com.profitsoft.application.entities.StatisticsItem;
+import com.profitsoft.application.utils.XmlStatisticsWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Long-running statistics over a directory that keeps changing.
+ * <p>
+ * Existing files are parsed once on start, then the directory is watched with a {@link WatchService}:
+ * only created or modified {@code *.json} files are parsed again. Each file's partial result is kept,
+ * so a modified or deleted file is first subtracted from the running totals. A path is processed once it
+ * has been quiet for the debounce interval (so half-written files are not parsed), and the XML reports
+ * are rewritten after each processed batch. Only the top directory is watched; the
+ * {@link StatisticsService#setRecursive recursive} and {@link StatisticsService#setInputGlob input glob}
+ * settings of the service do not apply.
+ */
+@Slf4j
+public class StatisticsWatcher implements Closeable {
+
+    private static final PathMatcher JSON = FileSystems.getDefault().getPathMatcher("glob:*.json");
+
+    private final StatisticsService service;
+    private final Path directory;
+    private final List<String> attributes;
+    private final Duration debounce;
+    private final int threads;
+
+    private final Map<Path, PartialStatistics> perFile = new HashMap<>();
+    /**
+     * Running totals per attribute. They are exact heap counts, so that a changed file can be subtracted.
+     */
+    private final ExactAccumulator[] totals;
+    private long bookCount;
+    private long errorCount;
+    private final Map<Path, Long> pending = new LinkedHashMap<>();
+    private final XmlStatisticsWriter writer = new XmlStatisticsWriter();
+    private volatile boolean running = true;
+    private Consumer<Map<String, StatisticsService.StatisticsResult>> listener = results -> { };
+
+    public StatisticsWatcher(StatisticsService service, File directory, List<String> attributes,
+                             Duration debounce, int threads) {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        this.service = Objects.requireNonNull(service, "service");
+        this.directory = directory.toPath().toAbsolutePath();
+        this.attributes = service.normalizeAttributes(attributes);
+        this.debounce = Objects.requireNonNull(debounce, "debounce");
+        this.threads = Math.max(1, threads);
+        this.totals = new ExactAccumulator[this.attributes.size()];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new ExactAccumulator();
+        }
+    }
+
+    /**
+     * Called with fresh results (keyed by attribute) every time the XML reports are rewritten.
+     */
+    public void setListener(Consumer<Map<String, StatisticsService.StatisticsResult>> listener) {
+        this.listener = Objects.requireNonNull(listener, "listener");
+    }
+
+    /**
+     * Blocks until {@link #close()} is called or the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            rescan(0);
+            process(executor, pending.keySet());
+            log.info("Watching {} for changes", directory);
+
+            long pollMs = Math.max(10, debounce.toMillis() / 2);
+            while (running) {
+                WatchKey key = watchService.poll(pollMs, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            log.warn("Watch events overflowed, rescanning {}", directory);
+                            rescan(now);
+                        } else if (event.context() instanceof Path name && JSON.matches(name)) {
+                            pending.put(directory.resolve(name), now);
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.warn("Directory {} is no longer accessible, stopping watch", directory);
+                        break;
+                    }
+                }
+                List<Path> quiet = pending.entrySet().stream()
+                        .filter(e -> now - e.getValue() >= debounce.toMillis())
+                        .map(Map.Entry::getKey)
+                        .toList();
+                if (!quiet.isEmpty()) {
+                    process(executor, quiet);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Watch service closed");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+
+    private void rescan(long now) throws IOException {
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path p : ds) present.add(p);
+        }
+        present.forEach(p -> pending.put(p, now));
+        perFile.keySet().stream().filter(p -> !present.contains(p)).forEach(p -> pending.put(p, now));
+    }
+
+    /**
+     * Re-parses the given paths in parallel, swaps their partials into the totals and rewrites the reports.
+     */
+    private void process(ExecutorService executor, Collection<Path> paths) throws InterruptedException {
+        long parsingStart = System.currentTimeMillis();
+        Map<Path, Future<PartialStatistics>> parsed = new LinkedHashMap<>();
+        for (Path path : List.copyOf(paths)) {
+            pending.remove(path);
+            parsed.put(path, Files.isRegularFile(path)
+                    ? executor.submit(() -> service.parseFile(path, attributes))
+                    : CompletableFuture.completedFuture(null));
+        }
+        for (Map.Entry<Path, Future<PartialStatistics>> e : parsed.entrySet()) {
+            PartialStatistics fresh;
+            try {
+                fresh = e.getValue().get();
+            } catch (ExecutionException ex) {
+                log.error("Failed to process {}: {}", e.getKey(), ex.getCause().getMessage(), ex);
+                fresh = new PartialStatistics(attributes.size());
+                fresh.incrementErrorCount();
+            }
+            PartialStatistics previous = fresh != null ? perFile.put(e.getKey(), fresh) : perFile.remove(e.getKey());
+            if (previous != null) subtract(previous);
+            if (fresh != null) merge(fresh);
+        }
+        long parsingTimeMs = System.currentTimeMillis() - parsingStart;
+        log.info("Updated statistics for {} changed file(s), tracking {} file(s)", parsed.size(), perFile.size());
+        writeReports(parsingTimeMs);
+    }
+
+    private void merge(PartialStatistics partial) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i].merge(partial.get(i));
+        }
+        bookCount += partial.getBookCount();
+        errorCount += partial.getErrorCount();
+    }
+
+    private void subtract(PartialStatistics partial) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i].subtract(partial.get(i));
+        }
+        bookCount -= partial.getBookCount();
+        errorCount -= partial.getErrorCount();
+    }
+
+    private void writeReports(long parsingTimeMs) {
+        Map<String, StatisticsService.StatisticsResult> results = new LinkedHashMap<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            List<StatisticsItem> statistics = service.toStatisticsItems(totals[i]);
+            File out = service.createOutputFile(attributes.get(i));
+            long xmlStart = System.currentTimeMillis();
+            try {
+                writer.writeStatistics(out.toPath(), statistics);
+            } catch (Exception e) {
+                log.error("Failed to write {}: {}", out, e.getMessage(), e);
+            }
+            long xmlTimeMs = System.currentTimeMillis() - xmlStart;
+            results.put(attributes.get(i), new StatisticsService.StatisticsResult(perFile.size(),
+                    bookCount, statistics, parsingTimeMs, xmlTimeMs, parsingTimeMs + xmlTimeMs,
+                    errorCount, out, 0, 0L, statistics.size(), 0L, List.of(), 0, false,
+                    new StatisticsService.Coverage(perFile.size(), perFile.size(), -1L, -1L)));
+        }
+        listener.accept(results);
+    }
+}
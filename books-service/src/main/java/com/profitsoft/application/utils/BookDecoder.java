@@ -0,0 +1,233 @@
+package com.profitsoft.application.utils;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.profitsoft.application.dto.BookPojo;
+import com.profitsoft.application.entities.Author;
+import com.profitsoft.application.entities.Book;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming decoder for {@link Book} and {@link BookPojo} that dispatches on field names and calls the
+ * setters directly, instead of going through {@code ObjectMapper.readValue}. Author objects are read
+ * field by field and genre strings are split without a regex, so no intermediate maps are built.
+ * <p>
+ * Results and failures match data binding with a default {@link ObjectMapper}: unknown fields are rejected,
+ * setter exceptions become {@link JsonMappingException}s with the field path, and values of an unusual shape (a number as title,
+ * an array as author, ...) are handed to the mapper so they are coerced exactly as before.
+ */
+final class BookDecoder {
+
+    private static final List<Object> BOOK_FIELDS =
+            List.of("yearPublished", "genre", "title", "id", "year_published", "author");
+    private static final List<Object> POJO_FIELDS =
+            List.of("yearPublished", "genre", "authorId", "title", "author", "year_published");
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {
+    };
+
+    private final ObjectMapper mapper;
+
+    BookDecoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Reads the object starting at the current {@link JsonToken#START_OBJECT} through its end.
+     */
+    Book readBook(JsonParser jp) throws IOException {
+        Book book = new Book();
+        Long id = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String name = jp.currentName();
+            JsonToken value = jp.nextToken();
+            try {
+                switch (name) {
+                    case "title" -> book.setTitle(readString(jp, value));
+                    case "author" -> readAuthor(jp, value, book);
+                    case "year_published", "yearPublished" -> book.setYearPublished(readInteger(jp, value));
+                    case "genre" -> readGenres(jp, value, book);
+                    case "id" -> id = mapper.readValue(jp, Long.class);
+                    default -> throw UnrecognizedPropertyException.from(jp, Book.class, name, BOOK_FIELDS);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                throw withPath(e, book, name);
+            }
+        }
+        return id == null ? book : book.toBuilder().id(id).build();
+    }
+
+    BookPojo readPojo(JsonParser jp) throws IOException {
+        BookPojo pojo = new BookPojo();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String name = jp.currentName();
+            JsonToken value = jp.nextToken();
+            try {
+                switch (name) {
+                    case "title" -> pojo.setTitle(readString(jp, value));
+                    case "yearPublished" -> pojo.setYearPublished(readInteger(jp, value));
+                    case "year_published" -> pojo.setYear_published(readInteger(jp, value));
+                    case "genre", "genres" -> pojo.setGenres(readStringList(jp, value));
+                    case "authorId" -> pojo.setAuthorId(value == JsonToken.VALUE_NUMBER_INT
+                            ? jp.getLongValue()
+                            : mapper.readValue(jp, Long.class));
+                    case "author" -> pojo.setAuthor(readPojoAuthor(jp, value));
+                    default -> throw UnrecognizedPropertyException.from(jp, BookPojo.class, name, POJO_FIELDS);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                throw withPath(e, pojo, name);
+            }
+        }
+        return pojo;
+    }
+
+    /**
+     * Wraps a failure like data binding does: Jackson and setter exceptions become a
+     * {@link JsonMappingException} that names the field, I/O errors are rethrown as they are.
+     */
+    private static IOException withPath(Exception e, Object bean, String field) throws IOException {
+        if (e instanceof IOException io && !(io instanceof JacksonException)) throw io;
+        return JsonMappingException.wrapWithPath(e, bean, field);
+    }
+
+    private String readString(JsonParser jp, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_STRING ? jp.getText() : mapper.readValue(jp, String.class);
+    }
+
+    private Integer readInteger(JsonParser jp, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_NUMBER_INT -> jp.getIntValue();
+            case VALUE_NULL -> null;
+            default -> mapper.readValue(jp, Integer.class);
+        };
+    }
+
+    /**
+     * A value as an untyped {@code Object} property would receive it; only structured values go through the mapper.
+     */
+    private Object readUntyped(JsonParser jp, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_STRING -> jp.getText();
+            case VALUE_NULL -> null;
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_NUMBER_INT -> jp.getNumberValue();
+            case VALUE_NUMBER_FLOAT -> jp.getDoubleValue();
+            default -> mapper.readValue(jp, Object.class);
+        };
+    }
+
+    /**
+     * Mirrors the map branch of {@link Book#setAuthor(Object)} without building the map: the last
+     * {@code name}, {@code country} and {@code birth_year} win, other fields are skipped.
+     */
+    private void readAuthor(JsonParser jp, JsonToken value, Book book) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            book.setAuthor(value == JsonToken.VALUE_STRING ? jp.getText() : mapper.readValue(jp, Object.class));
+            return;
+        }
+        Object nameValue = null;
+        Object countryValue = null;
+        Object birthYearValue = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.currentName();
+            JsonToken fieldValue = jp.nextToken();
+            switch (field) {
+                case "name" -> nameValue = readUntyped(jp, fieldValue);
+                case "country" -> countryValue = readUntyped(jp, fieldValue);
+                case "birth_year" -> birthYearValue = readUntyped(jp, fieldValue);
+                default -> jp.skipChildren();
+            }
+        }
+        String name = nameValue != null ? nameValue.toString().trim() : "";
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Author 'name' is missing or empty in JSON object");
+        }
+        String country = countryValue instanceof String c ? c.trim() : null;
+        Integer birthYear = null;
+        if (birthYearValue != null) {
+            try {
+                birthYear = Integer.valueOf(birthYearValue.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid birth_year format", e);
+            }
+        }
+        book.setAuthor(new Author(name, country, birthYear));
+    }
+
+    /**
+     * Strings are split like {@link Book#setGenres(Object)} does, arrays of strings are trimmed in place;
+     * anything else is bound as an untyped value and passed to the setter.
+     */
+    private void readGenres(JsonParser jp, JsonToken value, Book book) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            book.setGenres(splitGenres(jp.getText()));
+        } else if (value == JsonToken.START_ARRAY) {
+            List<String> genres = new ArrayList<>();
+            JsonToken element;
+            while ((element = jp.nextToken()) != JsonToken.END_ARRAY) {
+                Object genre = readUntyped(jp, element);
+                if (genre != null) {
+                    String text = genre.toString().trim();
+                    if (!text.isEmpty()) genres.add(text);
+                }
+            }
+            book.setGenres(genres);
+        } else {
+            book.setGenres(mapper.readValue(jp, Object.class));
+        }
+    }
+
+    /**
+     * Same parts as splitting by {@code \s*[,;/]\s*}, trimming and dropping blanks.
+     */
+    private static List<String> splitGenres(String text) {
+        List<String> genres = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == ',' || text.charAt(i) == ';' || text.charAt(i) == '/') {
+                String genre = text.substring(start, i).trim();
+                if (!genre.isEmpty()) genres.add(genre);
+                start = i + 1;
+            }
+        }
+        return genres;
+    }
+
+    private List<String> readStringList(JsonParser jp, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            return mapper.readValue(jp, STRING_LIST);
+        }
+        List<String> list = new ArrayList<>();
+        JsonToken element;
+        while ((element = jp.nextToken()) != JsonToken.END_ARRAY) {
+            list.add(element == JsonToken.VALUE_NULL ? null : readString(jp, element));
+        }
+        return list;
+    }
+
+    private Object readPojoAuthor(JsonParser jp, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            return readUntyped(jp, value);
+        }
+        Object id = null;
+        Object name = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.currentName();
+            JsonToken fieldValue = jp.nextToken();
+            switch (field) {
+                case "id" -> id = readUntyped(jp, fieldValue);
+                case "name" -> name = readUntyped(jp, fieldValue);
+                default -> jp.skipChildren();
+            }
+        }
+        return new BookPojo.AuthorRef(id, name);
+    }
+}
@@ -0,0 +1,200 @@
+package com.profitsoft.application.utils;
+
+import com.profitsoft.application.dto.BookFields;
+import com.profitsoft.application.entities.Book;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable, mutable counterpart of {@link BookFields}: the text of title, author and genres is copied
+ * into one shared char array and addressed by segments, so reading a book allocates no strings.
+ * One instance is refilled for every book, and its content is only valid until the next book is read.
+ */
+public final class BookFieldsBuffer {
+
+    public static final int TITLE = 0;
+    public static final int AUTHOR = 1;
+    public static final int GENRE = 2;
+
+    private char[] chars = new char[256];
+    private int used;
+
+    private int[] fields = new int[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int segments;
+
+    private boolean hasYear;
+    private int yearPublished;
+    private boolean hasGenres;
+
+    public void clear() {
+        used = 0;
+        segments = 0;
+        hasYear = false;
+        hasGenres = false;
+    }
+
+    /**
+     * Fills the buffer from an already parsed entity.
+     */
+    public void fill(Book book) {
+        clear();
+        addText(TITLE, book.getTitle());
+        addText(AUTHOR, book.getAuthorName());
+        if (book.getYearPublished() != null) setYearPublished(book.getYearPublished());
+        if (book.getGenres() != null) {
+            hasGenres = true;
+            for (String genre : book.getGenres()) addText(GENRE, genre);
+        }
+    }
+
+    public char[] chars() {
+        return chars;
+    }
+
+    public int segmentCount() {
+        return segments;
+    }
+
+    public int field(int segment) {
+        return fields[segment];
+    }
+
+    public int start(int segment) {
+        return starts[segment];
+    }
+
+    public int length(int segment) {
+        return ends[segment] - starts[segment];
+    }
+
+    /**
+     * @return the year, or {@code null} when it is missing
+     */
+    public Integer yearPublished() {
+        return hasYear ? yearPublished : null;
+    }
+
+    public boolean hasYearPublished() {
+        return hasYear;
+    }
+
+    /**
+     * Year as a primitive; only meaningful when {@link #hasYearPublished()}.
+     */
+    public int yearPublishedValue() {
+        return yearPublished;
+    }
+
+    /**
+     * Copies the buffer into an immutable {@link BookFields}; absent fields become {@code null}.
+     */
+    public BookFields toBookFields() {
+        String title = null;
+        String author = null;
+        List<String> genres = hasGenres ? new ArrayList<>() : null;
+        for (int i = 0; i < segments; i++) {
+            String text = new String(chars, starts[i], ends[i] - starts[i]);
+            switch (fields[i]) {
+                case TITLE -> title = text;
+                case AUTHOR -> author = text;
+                default -> genres.add(text);
+            }
+        }
+        return new BookFields(title, author, yearPublished(), genres);
+    }
+
+    void setYearPublished(int year) {
+        hasYear = true;
+        yearPublished = year;
+    }
+
+    void markGenres() {
+        hasGenres = true;
+    }
+
+    /**
+     * Appends raw text and returns its start offset; segments are added separately.
+     */
+    int append(char[] source, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(source, offset, chars, used, length);
+        int start = used;
+        used += length;
+        return start;
+    }
+
+    /**
+     * Appends ASCII bytes as chars.
+     */
+    int appendAscii(byte[] source, int from, int to) {
+        ensureCapacity(to - from);
+        int start = used;
+        for (int i = from; i < to; i++) chars[used++] = (char) source[i];
+        return start;
+    }
+
+    void appendChar(char c) {
+        ensureCapacity(1);
+        chars[used++] = c;
+    }
+
+    /**
+     * Offset just after the last appended char.
+     */
+    int used() {
+        return used;
+    }
+
+    int append(String source) {
+        ensureCapacity(source.length());
+        source.getChars(0, source.length(), chars, used);
+        int start = used;
+        used += source.length();
+        return start;
+    }
+
+    void addSegment(int field, int start, int end) {
+        if (segments == fields.length) {
+            fields = Arrays.copyOf(fields, segments * 2);
+            starts = Arrays.copyOf(starts, segments * 2);
+            ends = Arrays.copyOf(ends, segments * 2);
+        }
+        fields[segments] = field;
+        starts[segments] = start;
+        ends[segments] = end;
+        segments++;
+    }
+
+    /**
+     * Drops the segments of {@code field}, so a field repeated in one object keeps its last value.
+     */
+    void removeField(int field) {
+        int kept = 0;
+        for (int i = 0; i < segments; i++) {
+            if (fields[i] != field) {
+                fields[kept] = fields[i];
+                starts[kept] = starts[i];
+                ends[kept] = ends[i];
+                kept++;
+            }
+        }
+        segments = kept;
+        if (field == GENRE) hasGenres = false;
+    }
+
+    private void addText(int field, String text) {
+        if (text == null) return;
+        int start = append(text);
+        addSegment(field, start, used);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (used + extra > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, used + extra));
+        }
+    }
+}
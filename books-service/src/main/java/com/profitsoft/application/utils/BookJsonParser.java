@@ -5,13 +5,21 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.profitsoft.application.dto.BookFields;
 import com.profitsoft.application.dto.BookPojo;
 import com.profitsoft.application.entities.Book;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import lombok.*;
@@ -26,36 +34,120 @@ import org.springframework.stereotype.Component;
 @NoArgsConstructor
 public class BookJsonParser {
 
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    /**
+     * Larger inputs are scanned with Jackson even when the structural index is selected,
+     * since the index backend holds the whole input in memory.
+     */
+    private static final long MAX_INDEXED_BYTES = 512L * 1024 * 1024;
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+
     private ObjectMapper mapper = new ObjectMapper();
     private JsonFactory factory = mapper.getFactory();
 
+    /**
+     * When set, file bytes are read by the pipeline's reader threads ahead of parsing
+     * instead of on the parsing thread.
+     */
+    private ReadAheadPipeline readAhead;
+
+    /**
+     * Implementation of the projection scan ({@link #scanFileFields}); full entities are always read
+     * with Jackson.
+     */
+    private ScanBackend scanBackend = ScanBackend.JACKSON;
+
+    /**
+     * When set, files are memory-mapped in windows of {@value #MAP_WINDOW_BYTES} bytes and read from
+     * the mapping instead of through read calls.
+     */
+    private boolean memoryMapped;
+
     public void parseFileAsPojo(Path file, Consumer<BookPojo> consumer)
             throws IOException {
-        try (InputStream in = Files.newInputStream(file);
-             JsonParser jp = factory.createParser(in)) {
+        parse(file, null, decoder()::readPojo, consumer);
+    }
 
-            JsonToken token = jp.nextToken();
-            if (token == null) {
-                log.warn("Empty JSON file: {}", file);
-                return;
-            }
+    public void parseFile(Path file, Consumer<Book> consumer) throws IOException {
+        parse(file, null, decoder()::readBook, consumer);
+    }
 
-            if (token == JsonToken.START_ARRAY) {
-                while (jp.nextToken() != JsonToken.END_ARRAY) {
-                    if (jp.currentToken() == JsonToken.START_OBJECT) {
-                        BookPojo book = mapper.readValue(jp, BookPojo.class);
-                        consumer.accept(book);
-                    } else {
-                        jp.skipChildren();
+    /**
+     * Parses only the elements inside {@code range}, as produced by {@link JsonArraySplitter}.
+     */
+    public void parseFile(Path file, ByteRange range, Consumer<Book> consumer) throws IOException {
+        parse(file, range, decoder()::readBook, consumer);
+    }
+
+    /**
+     * Entities are read by a {@link BookDecoder} rather than {@code mapper.readValue}; it falls back on
+     * the current mapper for unusual values.
+     */
+    private BookDecoder decoder() {
+        return new BookDecoder(mapper);
+    }
+
+    /**
+     * Projection scan: reads only the given attributes ("title", "author", "year_published", "genre")
+     * straight from the token stream without building {@link Book} entities. All other fields are skipped.
+     * Validation of the projected values follows the entity setters (null/empty author, non-positive year).
+     */
+    public void scanFile(Path file, Set<String> attributes, Consumer<BookFields> consumer) throws IOException {
+        scanFile(file, null, attributes, consumer);
+    }
+
+    public void scanFile(Path file, ByteRange range, Set<String> attributes, Consumer<BookFields> consumer)
+            throws IOException {
+        scanFileFields(file, range, attributes, fields -> consumer.accept(fields.toBookFields()));
+    }
+
+    /**
+     * Same as {@link #scanFile(Path, ByteRange, Set, Consumer)}, but the text is copied from the parser's
+     * buffer into one {@link BookFieldsBuffer} that is reused for every book, so no strings are created.
+     * The buffer is only valid during the callback.
+     */
+    public void scanFileFields(Path file, ByteRange range, Set<String> attributes,
+                               Consumer<BookFieldsBuffer> consumer) throws IOException {
+        BookFieldsBuffer buffer = new BookFieldsBuffer();
+        long size = range == null ? Files.size(file) : range.length() + 2;
+        if (scanBackend == ScanBackend.STRUCTURAL_INDEX && size <= MAX_INDEXED_BYTES
+                && !CompressedInput.isCompressed(file.getFileName().toString())) {
+            scanIndexed(file, range, (int) size, attributes, buffer, consumer);
+        } else {
+            parse(file, range, jp -> scanObject(jp, attributes, buffer), consumer);
+        }
+    }
+
+    /**
+     * Reads the whole file or range into memory, indexes its structure and scans the books from the index.
+     */
+    private void scanIndexed(Path file, ByteRange range, int size, Set<String> attributes, BookFieldsBuffer buffer,
+                             Consumer<BookFieldsBuffer> consumer) throws IOException {
+        try {
+            byte[] data = new byte[size];
+            int length;
+            try (InputStream in = readAhead != null ? readAhead.open(() -> open(file, range)) : open(file, range)) {
+                length = in.readNBytes(data, 0, size);
+                if (length == size) {
+                    // The file grew since its size was read
+                    byte[] rest = in.readAllBytes();
+                    if (rest.length > 0) {
+                        data = Arrays.copyOf(data, size + rest.length);
+                        System.arraycopy(rest, 0, data, size, rest.length);
+                        length += rest.length;
                     }
                 }
-            } else if (token == JsonToken.START_OBJECT) {
-                BookPojo book = mapper.readValue(jp, BookPojo.class);
-                consumer.accept(book);
-            } else {
-                log.warn("Unsupported root token in {}: {}", file, token);
             }
-        } catch (JsonParseException e) {
+            boolean lines = isJsonLines(file.toString());
+            JsonToken root = new IndexedBookScanner(data, length).scan(attributes, lines, buffer, consumer);
+            if (root == null) {
+                log.warn("Empty JSON file: {}", file);
+            } else if (!lines && root != JsonToken.START_ARRAY && root != JsonToken.START_OBJECT) {
+                log.warn("Unsupported root token in {}: {}", file, root);
+            }
+        } catch (IndexedBookScanner.MalformedJsonException e) {
             log.error("Invalid JSON in {}: {}", file, e.getMessage(), e);
             throw new IOException("JSON parsing failed", e);
         } catch (IOException e) {
@@ -64,10 +156,47 @@ public class BookJsonParser {
         }
     }
 
-    public void parseFile(Path file, Consumer<Book> consumer) throws IOException {
-        try (InputStream in = Files.newInputStream(file);
+    /**
+     * Parses a stream that is not a file of its own, such as a zip entry. {@code name} selects
+     * decompression (see {@link CompressedInput}) and identifies the stream in log messages.
+     */
+    public void parseEntry(String name, ReadAheadPipeline.Source source, Consumer<Book> consumer)
+            throws IOException {
+        parse(name, () -> CompressedInput.decompress(name, source.open()),
+                decoder()::readBook, consumer);
+    }
+
+    /**
+     * Projection scan of a stream, see {@link #parseEntry} and {@link #scanFileFields}.
+     */
+    public void scanEntryFields(String name, ReadAheadPipeline.Source source, Set<String> attributes,
+                                Consumer<BookFieldsBuffer> consumer) throws IOException {
+        BookFieldsBuffer buffer = new BookFieldsBuffer();
+        parse(name, () -> CompressedInput.decompress(name, source.open()),
+                jp -> scanObject(jp, attributes, buffer), consumer);
+    }
+
+    private <T> void parse(Path file, ByteRange range, ElementReader<T> reader, Consumer<T> consumer)
+            throws IOException {
+        parse(file.toString(), () -> open(file, range), reader, consumer);
+    }
+
+    private <T> void parse(String file, ReadAheadPipeline.Source source, ElementReader<T> reader,
+                           Consumer<T> consumer) throws IOException {
+        try (InputStream in = readAhead != null ? readAhead.open(source) : source.open();
              JsonParser jp = factory.createParser(in)) {
 
+            if (isJsonLines(file)) {
+                for (JsonToken token = jp.nextToken(); token != null; token = jp.nextToken()) {
+                    if (token == JsonToken.START_OBJECT) {
+                        consumer.accept(reader.read(jp));
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                return;
+            }
+
             JsonToken token = jp.nextToken();
             if (token == null) {
                 log.warn("Empty JSON file: {}", file);
@@ -77,15 +206,13 @@ public class BookJsonParser {
             if (token == JsonToken.START_ARRAY) {
                 while (jp.nextToken() != JsonToken.END_ARRAY) {
                     if (jp.currentToken() == JsonToken.START_OBJECT) {
-                        Book book = mapper.readValue(jp, Book.class);
-                        consumer.accept(book);
+                        consumer.accept(reader.read(jp));
                     } else {
                         jp.skipChildren();
                     }
                 }
             } else if (token == JsonToken.START_OBJECT) {
-                Book book = mapper.readValue(jp, Book.class);
-                consumer.accept(book);
+                consumer.accept(reader.read(jp));
             } else {
                 log.warn("Unsupported root token in {}: {}", file, token);
             }
@@ -97,4 +224,217 @@ public class BookJsonParser {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * JSON Lines ({@code .ndjson} or {@code .jsonl}, possibly compressed): one book object per line
+     * instead of one array, so files can be split at any newline (see {@link JsonLinesSplitter}).
+     */
+    public static boolean isJsonLines(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".gz")) {
+            lower = lower.substring(0, lower.length() - 3);
+        } else if (lower.endsWith(".zst")) {
+            lower = lower.substring(0, lower.length() - 4);
+        }
+        return lower.endsWith(".ndjson") || lower.endsWith(".jsonl");
+    }
+
+    /**
+     * An array range holds comma-separated elements, so it is wrapped in brackets to be read as an array;
+     * a JSON Lines range is read as it is. Compressed files are decompressed; they are never split into ranges.
+     * Subclasses may wrap the stream, e.g. to simulate slow storage in benchmarks.
+     */
+    protected InputStream open(Path file, ByteRange range) throws IOException {
+        if (range == null) {
+            InputStream raw = memoryMapped
+                    ? new MappedInputStream(file, new ByteRange(0, Long.MAX_VALUE), MAP_WINDOW_BYTES)
+                    : Files.newInputStream(file);
+            return CompressedInput.decompress(file.getFileName().toString(), raw);
+        }
+        InputStream elements = memoryMapped
+                ? new MappedInputStream(file, range, MAP_WINDOW_BYTES)
+                : new FileRangeInputStream(file, range);
+        if (isJsonLines(file.getFileName().toString())) {
+            return elements;
+        }
+        return new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(ARRAY_START),
+                elements,
+                new ByteArrayInputStream(ARRAY_END))));
+    }
+
+    private BookFieldsBuffer scanObject(JsonParser jp, Set<String> attributes, BookFieldsBuffer out)
+            throws IOException {
+        out.clear();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String name = jp.currentName();
+            JsonToken value = jp.nextToken();
+            switch (name) {
+                case "title" -> {
+                    if (attributes.contains("title")) {
+                        out.removeField(BookFieldsBuffer.TITLE);
+                        int start = appendScalarText(jp, value, out);
+                        if (start >= 0) out.addSegment(BookFieldsBuffer.TITLE, start, start + jp.getTextLength());
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                case "author" -> {
+                    if (attributes.contains("author")) {
+                        out.removeField(BookFieldsBuffer.AUTHOR);
+                        readAuthor(jp, value, out);
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                case "year_published", "yearPublished" -> {
+                    if (attributes.contains("year_published")) {
+                        Integer year = readYear(jp, value);
+                        if (year != null) out.setYearPublished(year);
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                case "genre" -> {
+                    if (attributes.contains("genre")) {
+                        out.removeField(BookFieldsBuffer.GENRE);
+                        readGenres(jp, value, out);
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                default -> jp.skipChildren();
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Copies the current scalar token's text into {@code out} without creating a string.
+     *
+     * @return start offset of the copied text, or -1 for null and structured values (which are skipped)
+     */
+    private int appendScalarText(JsonParser jp, JsonToken value, BookFieldsBuffer out) throws IOException {
+        if (value == JsonToken.VALUE_NULL) return -1;
+        if (value.isScalarValue()) {
+            return out.append(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+        }
+        jp.skipChildren();
+        return -1;
+    }
+
+    private void readAuthor(JsonParser jp, JsonToken value, BookFieldsBuffer out) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            throw new IllegalArgumentException("Author cannot be null");
+        }
+        int start = -1;
+        int end = -1;
+        if (value == JsonToken.START_OBJECT) {
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.currentName();
+                JsonToken fieldValue = jp.nextToken();
+                if ("name".equals(field)) {
+                    start = appendScalarText(jp, fieldValue, out);
+                    end = start + jp.getTextLength();
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (start < 0 || isBlank(out.chars(), start, end)) {
+                throw new IllegalArgumentException("Author 'name' is missing or empty in JSON object");
+            }
+        } else {
+            start = appendScalarText(jp, value, out);
+            end = start + jp.getTextLength();
+            if (start < 0 || isBlank(out.chars(), start, end)) {
+                throw new IllegalArgumentException("Author name cannot be empty");
+            }
+        }
+        char[] chars = out.chars();
+        while (chars[start] <= ' ') start++;
+        while (chars[end - 1] <= ' ') end--;
+        out.addSegment(BookFieldsBuffer.AUTHOR, start, end);
+    }
+
+    static boolean isBlank(char[] chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars[i] > ' ') return false;
+        }
+        return true;
+    }
+
+    private Integer readYear(JsonParser jp, JsonToken value) throws IOException {
+        Integer year = switch (value) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> jp.getIntValue();
+            case VALUE_NUMBER_FLOAT -> (int) jp.getDoubleValue();
+            case VALUE_STRING -> {
+                String text = jp.getText().trim();
+                yield text.isEmpty() ? null : Integer.valueOf(text);
+            }
+            default -> throw new IllegalArgumentException("Invalid year_published token: " + value);
+        };
+        if (year != null && year <= 0) {
+            throw new IllegalArgumentException("Year published must be positive");
+        }
+        return year;
+    }
+
+    private void readGenres(JsonParser jp, JsonToken value, BookFieldsBuffer out) throws IOException {
+        out.markGenres();
+        if (value == JsonToken.START_ARRAY) {
+            JsonToken element;
+            while ((element = jp.nextToken()) != JsonToken.END_ARRAY) {
+                int start = appendScalarText(jp, element, out);
+                if (start >= 0) addTrimmed(out, start, start + jp.getTextLength());
+            }
+        } else if (value == JsonToken.VALUE_STRING) {
+            int start = out.append(jp.getTextCharacters(), jp.getTextOffset(), jp.getTextLength());
+            splitGenres(out, start, start + jp.getTextLength());
+        } else {
+            int start = appendScalarText(jp, value, out);
+            if (start >= 0) addTrimmed(out, start, start + jp.getTextLength());
+        }
+    }
+
+    /**
+     * Same result as splitting by {@code \s*[,;/]\s*} and dropping blanks, without the regex:
+     * one segment per genre between {@code from} and {@code to}.
+     */
+    static void splitGenres(BookFieldsBuffer out, int from, int to) {
+        char[] chars = out.chars();
+        int start = from;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c == ',' || c == ';' || c == '/') {
+                addTrimmed(out, start, i);
+                start = i + 1;
+            }
+        }
+        addTrimmed(out, start, to);
+    }
+
+    static void addTrimmed(BookFieldsBuffer out, int from, int to) {
+        char[] chars = out.chars();
+        while (from < to && chars[from] <= ' ') from++;
+        while (to > from && chars[to - 1] <= ' ') to--;
+        if (from < to) out.addSegment(BookFieldsBuffer.GENRE, from, to);
+    }
+
+    public enum ScanBackend {
+        /**
+         * Jackson's streaming parser.
+         */
+        JACKSON,
+        /**
+         * Two-stage scanner: a bulk pass indexes quotes and structural characters 64 bytes at a time,
+         * then only the projected fields are decoded from the index ({@link StructuralIndexer}).
+         */
+        STRUCTURAL_INDEX
+    }
+
+    @FunctionalInterface
+    private interface ElementReader<T> {
+        T read(JsonParser jp) throws IOException;
+    }
+}
@@ -0,0 +1,11 @@
+package com.profitsoft.application.utils;
+
+/**
+ * Half-open byte range {@code [start, end)} inside a file.
+ */
+public record ByteRange(long start, long end) {
+
+    public long length() {
+        return end - start;
+    }
+}
@@ -0,0 +1,108 @@
+package com.profitsoft.application.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input formats besides plain {@code .json}: gzip ({@code .json.gz}) and Zstandard ({@code .json.zst}) files
+ * are decompressed while they are parsed, zip archives ({@code .zip}) are read entry by entry.
+ * Nothing is unpacked to disk. JSON Lines files ({@code .ndjson}, {@code .jsonl}) may be compressed
+ * and archived the same way.
+ * <p>
+ * Zstandard is decoded by zstd-jni, which comes with the Kafka client; it is looked up at runtime so that
+ * the other formats work without it.
+ */
+public final class CompressedInput {
+
+    /**
+     * Glob matching every supported input file in a directory.
+     */
+    public static final String INPUT_GLOB =
+            "*.{json,json.gz,json.zst,ndjson,ndjson.gz,ndjson.zst,jsonl,jsonl.gz,jsonl.zst,zip}";
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String ZSTD_STREAM = "com.github.luben.zstd.ZstdInputStream";
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Zip archive whose {@link #isBookInput book entries} are parsed.
+     */
+    public static boolean isArchive(Path file) {
+        return lowerName(file.getFileName().toString()).endsWith(".zip");
+    }
+
+    /**
+     * JSON or JSON Lines, plain or compressed; only plain files can be split or scanned in place.
+     */
+    public static boolean isBookInput(String name) {
+        String lower = lowerName(name);
+        if (lower.endsWith(".gz")) {
+            lower = lower.substring(0, lower.length() - 3);
+        } else if (lower.endsWith(".zst")) {
+            lower = lower.substring(0, lower.length() - 4);
+        }
+        return lower.endsWith(".json") || lower.endsWith(".ndjson") || lower.endsWith(".jsonl");
+    }
+
+    public static boolean isCompressed(String name) {
+        String lower = lowerName(name);
+        return lower.endsWith(".gz") || lower.endsWith(".zst");
+    }
+
+    /**
+     * Wraps {@code in} in a decoder chosen by the suffix of {@code name}; other names are returned as they are.
+     * {@code in} is closed if the decoder cannot be created.
+     */
+    public static InputStream decompress(String name, InputStream in) throws IOException {
+        String lower = lowerName(name);
+        try {
+            if (lower.endsWith(".gz")) {
+                return new GZIPInputStream(in, BUFFER_BYTES);
+            }
+            if (lower.endsWith(".zst")) {
+                return zstd(in);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static InputStream zstd(InputStream in) throws IOException {
+        try {
+            return (InputStream) ZstdDecoder.CONSTRUCTOR.newInstance(in);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Cannot create Zstandard decoder", e.getCause());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IOException("Reading .zst files requires com.github.luben:zstd-jni on the classpath", e);
+        }
+    }
+
+    private static String lowerName(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Resolved on first use, so a missing zstd-jni only fails {@code .zst} files.
+     */
+    private static final class ZstdDecoder {
+        private static final Constructor<?> CONSTRUCTOR;
+
+        static {
+            try {
+                CONSTRUCTOR = Class.forName(ZSTD_STREAM).getConstructor(InputStream.class);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.profitsoft.application.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input stream over a {@link ByteRange} of a file, using positional channel reads.
+ */
+class FileRangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    FileRangeInputStream(Path file, ByteRange range) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.position = range.start();
+        this.end = range.end();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n <= 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end) return -1;
+        int toRead = (int) Math.min(len, end - position);
+        int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+        if (n < 0) return -1;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,593 @@
+package com.profitsoft.application.utils;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Stage two of the structural-index scanner: walks the positions found by {@link StructuralIndexer}
+ * to the projected fields of every book and fills a {@link BookFieldsBuffer}, with the same results and
+ * validation as the Jackson projection scan of {@link BookJsonParser}.
+ * <p>
+ * Values of other fields are skipped by jumping over the index to the matching close bracket, without
+ * looking at their bytes, so skipped values are only checked for balanced brackets. Only values that are
+ * read are decoded; ASCII strings without escapes are copied byte for byte.
+ */
+final class IndexedBookScanner {
+
+    private static final byte[] TITLE = {'t', 'i', 't', 'l', 'e'};
+    private static final byte[] AUTHOR = {'a', 'u', 't', 'h', 'o', 'r'};
+    private static final byte[] YEAR_PUBLISHED = "year_published".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] YEAR_PUBLISHED_CAMEL = "yearPublished".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GENRE = {'g', 'e', 'n', 'r', 'e'};
+    private static final byte[] NAME = {'n', 'a', 'm', 'e'};
+
+    /**
+     * Field ids next to {@link BookFieldsBuffer#TITLE}, {@link BookFieldsBuffer#AUTHOR}
+     * and {@link BookFieldsBuffer#GENRE}.
+     */
+    private static final int YEAR = 3;
+    private static final int OTHER = -1;
+
+    private final byte[] data;
+    private final int length;
+    private final int[] marks;
+    private final int markCount;
+
+    /**
+     * Byte position after the last consumed token.
+     */
+    private int pos;
+    /**
+     * First index entry (quote or bracket) at or after {@link #pos}.
+     */
+    private int next;
+
+    /**
+     * Content of the last scalar value: the inside of a string, or the raw text of other scalars.
+     */
+    private int valueStart;
+    private int valueEnd;
+
+    IndexedBookScanner(byte[] data, int length) throws MalformedJsonException {
+        this.data = data;
+        this.length = length;
+        StructuralIndexer.Index index = StructuralIndexer.index(data, length);
+        if (index.unterminatedString()) {
+            throw new MalformedJsonException("Unexpected end of input in a string", length);
+        }
+        this.marks = index.positions();
+        this.markCount = index.count();
+    }
+
+    /**
+     * @param lines JSON Lines input: a sequence of root values, each object a book
+     * @return the (first) root token, or {@code null} for empty input; books are only read from
+     * a root array or object
+     */
+    JsonToken scan(Set<String> attributes, boolean lines, BookFieldsBuffer out,
+                   Consumer<BookFieldsBuffer> consumer) throws IOException {
+        boolean[] projected = new boolean[YEAR + 1];
+        projected[BookFieldsBuffer.TITLE] = attributes.contains("title");
+        projected[BookFieldsBuffer.AUTHOR] = attributes.contains("author");
+        projected[BookFieldsBuffer.GENRE] = attributes.contains("genre");
+        projected[YEAR] = attributes.contains("year_published");
+
+        if (skipWhitespace(0) == length) return null;
+        if (lines) {
+            JsonToken first = null;
+            while (skipWhitespace(pos) < length) {
+                JsonToken root = value();
+                if (first == null) first = root;
+                if (root == JsonToken.START_OBJECT) {
+                    consumer.accept(readBook(projected, out));
+                } else {
+                    skip(root);
+                }
+            }
+            return first;
+        }
+        JsonToken root = value();
+        if (root == JsonToken.START_ARRAY) {
+            consume('[');
+            if (peek() == ']') return root;
+            do {
+                JsonToken element = value();
+                if (element == JsonToken.START_OBJECT) {
+                    consumer.accept(readBook(projected, out));
+                } else {
+                    skip(element);
+                }
+            } while (nextElement(']'));
+        } else if (root == JsonToken.START_OBJECT) {
+            consumer.accept(readBook(projected, out));
+        }
+        return root;
+    }
+
+    private BookFieldsBuffer readBook(boolean[] projected, BookFieldsBuffer out) throws IOException {
+        out.clear();
+        if (!firstField()) return out;
+        do {
+            int field = fieldOf(valueStart, valueEnd);
+            consume(':');
+            JsonToken value = value();
+            if (field == OTHER || !projected[field]) {
+                skip(value);
+                continue;
+            }
+            switch (field) {
+                case BookFieldsBuffer.TITLE -> {
+                    out.removeField(BookFieldsBuffer.TITLE);
+                    int start = appendScalarText(value, out);
+                    if (start >= 0) out.addSegment(BookFieldsBuffer.TITLE, start, out.used());
+                }
+                case BookFieldsBuffer.AUTHOR -> {
+                    out.removeField(BookFieldsBuffer.AUTHOR);
+                    readAuthor(value, out);
+                }
+                case BookFieldsBuffer.GENRE -> {
+                    out.removeField(BookFieldsBuffer.GENRE);
+                    readGenres(value, out);
+                }
+                default -> {
+                    Integer year = readYear(value);
+                    if (year != null) out.setYearPublished(year);
+                }
+            }
+        } while (nextField());
+        return out;
+    }
+
+    private void readAuthor(JsonToken value, BookFieldsBuffer out) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            throw new IllegalArgumentException("Author cannot be null");
+        }
+        int start = -1;
+        int end = -1;
+        if (value == JsonToken.START_OBJECT) {
+            if (firstField()) {
+                do {
+                    boolean isName = isName(valueStart, valueEnd);
+                    consume(':');
+                    JsonToken fieldValue = value();
+                    if (isName) {
+                        start = appendScalarText(fieldValue, out);
+                        end = out.used();
+                    } else {
+                        skip(fieldValue);
+                    }
+                } while (nextField());
+            }
+            if (start < 0 || BookJsonParser.isBlank(out.chars(), start, end)) {
+                throw new IllegalArgumentException("Author 'name' is missing or empty in JSON object");
+            }
+        } else {
+            start = appendScalarText(value, out);
+            end = out.used();
+            if (start < 0 || BookJsonParser.isBlank(out.chars(), start, end)) {
+                throw new IllegalArgumentException("Author name cannot be empty");
+            }
+        }
+        char[] chars = out.chars();
+        while (chars[start] <= ' ') start++;
+        while (chars[end - 1] <= ' ') end--;
+        out.addSegment(BookFieldsBuffer.AUTHOR, start, end);
+    }
+
+    private Integer readYear(JsonToken value) throws IOException {
+        Integer year = switch (value) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> parseInt();
+            case VALUE_NUMBER_FLOAT -> (int) Double.parseDouble(asciiText());
+            case VALUE_STRING -> {
+                String text = decodeString().trim();
+                yield text.isEmpty() ? null : Integer.valueOf(text);
+            }
+            default -> throw new IllegalArgumentException("Invalid year_published token: " + value);
+        };
+        if (year != null && year <= 0) {
+            throw new IllegalArgumentException("Year published must be positive");
+        }
+        return year;
+    }
+
+    private void readGenres(JsonToken value, BookFieldsBuffer out) throws IOException {
+        out.markGenres();
+        if (value == JsonToken.START_ARRAY) {
+            consume('[');
+            if (peek() == ']') {
+                consume(']');
+                return;
+            }
+            do {
+                int start = appendScalarText(value(), out);
+                if (start >= 0) BookJsonParser.addTrimmed(out, start, out.used());
+            } while (nextElement(']'));
+        } else if (value == JsonToken.VALUE_STRING) {
+            int start = appendScalarText(value, out);
+            BookJsonParser.splitGenres(out, start, out.used());
+        } else {
+            int start = appendScalarText(value, out);
+            if (start >= 0) BookJsonParser.addTrimmed(out, start, out.used());
+        }
+    }
+
+    /**
+     * Copies the text of the scalar just read into {@code out}.
+     *
+     * @return start offset of the copied text, or -1 for null and structured values (which are skipped)
+     */
+    private int appendScalarText(JsonToken value, BookFieldsBuffer out) throws IOException {
+        if (value == JsonToken.VALUE_NULL) return -1;
+        if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+            skip(value);
+            return -1;
+        }
+        if (isPlainAscii(valueStart, valueEnd)) {
+            return out.appendAscii(data, valueStart, valueEnd);
+        }
+        int start = out.used();
+        decode(valueStart, valueEnd, out::appendChar);
+        return start;
+    }
+
+    // region Tokens
+
+    /**
+     * Reads the next value. Scalars are consumed and their content is left in {@link #valueStart} and
+     * {@link #valueEnd}; for objects and arrays the position stays on the opening bracket.
+     */
+    private JsonToken value() throws MalformedJsonException {
+        int p = skipWhitespace(pos);
+        if (p == length) throw new MalformedJsonException("Unexpected end of input", p);
+        byte c = data[p];
+        if (c == '{' || c == '[') {
+            expectMark(p);
+            return c == '{' ? JsonToken.START_OBJECT : JsonToken.START_ARRAY;
+        }
+        if (c == '"') {
+            expectMark(p);
+            if (next + 1 >= markCount || data[marks[next + 1]] != '"') {
+                throw new MalformedJsonException("Unterminated string", p);
+            }
+            valueStart = p + 1;
+            valueEnd = marks[next + 1];
+            next += 2;
+            pos = valueEnd + 1;
+            return JsonToken.VALUE_STRING;
+        }
+        int end = p;
+        while (end < length && !endsScalar(data[end])) end++;
+        valueStart = p;
+        valueEnd = end;
+        pos = end;
+        return scalarToken(p, end);
+    }
+
+    private JsonToken scalarToken(int from, int to) throws MalformedJsonException {
+        if (literal(from, to, "true")) return JsonToken.VALUE_TRUE;
+        if (literal(from, to, "false")) return JsonToken.VALUE_FALSE;
+        if (literal(from, to, "null")) return JsonToken.VALUE_NULL;
+        int i = from;
+        if (i < to && data[i] == '-') i++;
+        int digits = i;
+        while (i < to && isDigit(data[i])) i++;
+        if (i == digits || (data[digits] == '0' && i - digits > 1)) {
+            throw new MalformedJsonException("Unrecognized token", from);
+        }
+        boolean integral = true;
+        if (i < to && data[i] == '.') {
+            integral = false;
+            int fraction = ++i;
+            while (i < to && isDigit(data[i])) i++;
+            if (i == fraction) throw new MalformedJsonException("Invalid number", from);
+        }
+        if (i < to && (data[i] == 'e' || data[i] == 'E')) {
+            integral = false;
+            i++;
+            if (i < to && (data[i] == '+' || data[i] == '-')) i++;
+            int exponent = i;
+            while (i < to && isDigit(data[i])) i++;
+            if (i == exponent) throw new MalformedJsonException("Invalid number", from);
+        }
+        if (i != to) throw new MalformedJsonException("Unrecognized token", from);
+        return integral ? JsonToken.VALUE_NUMBER_INT : JsonToken.VALUE_NUMBER_FLOAT;
+    }
+
+    /**
+     * Skips a value returned by {@link #value()}: scalars are already consumed, objects and arrays are
+     * passed by counting brackets in the index up to the matching close bracket.
+     */
+    private void skip(JsonToken value) throws MalformedJsonException {
+        if (value != JsonToken.START_OBJECT && value != JsonToken.START_ARRAY) return;
+        int depth = 0;
+        do {
+            if (next >= markCount) throw new MalformedJsonException("Unexpected end of input", length);
+            byte c = data[marks[next++]];
+            if (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') depth--;
+        } while (depth > 0);
+        pos = marks[next - 1] + 1;
+    }
+
+    /**
+     * Consumes {@code {} and the first key.
+     *
+     * @return {@code false} for an empty object
+     */
+    private boolean firstField() throws MalformedJsonException {
+        consume('{');
+        if (peek() == '}') {
+            consume('}');
+            return false;
+        }
+        key();
+        return true;
+    }
+
+    /**
+     * Consumes the separator after a field value and the next key.
+     *
+     * @return {@code false} at the end of the object
+     */
+    private boolean nextField() throws MalformedJsonException {
+        if (!nextElement('}')) return false;
+        key();
+        return true;
+    }
+
+    private void key() throws MalformedJsonException {
+        if (peek() != '"' || value() != JsonToken.VALUE_STRING) {
+            throw new MalformedJsonException("Expected a field name", skipWhitespace(pos));
+        }
+    }
+
+    /**
+     * @return {@code true} after a comma, {@code false} after the closing bracket
+     */
+    private boolean nextElement(char close) throws MalformedJsonException {
+        if (peek() == ',') {
+            consume(',');
+            return true;
+        }
+        consume(close);
+        return false;
+    }
+
+    /**
+     * The next non-whitespace character.
+     */
+    private byte peek() throws MalformedJsonException {
+        int p = skipWhitespace(pos);
+        if (p == length) throw new MalformedJsonException("Unexpected end of input", p);
+        return data[p];
+    }
+
+    /**
+     * Consumes {@code expected} after optional whitespace; brackets are also consumed from the index.
+     */
+    private void consume(char expected) throws MalformedJsonException {
+        int p = skipWhitespace(pos);
+        if (p == length || data[p] != expected) {
+            throw new MalformedJsonException("Expected '" + expected + "'", p);
+        }
+        if (expected != ':' && expected != ',') {
+            expectMark(p);
+            next++;
+        }
+        pos = p + 1;
+    }
+
+    private void expectMark(int p) throws MalformedJsonException {
+        if (next >= markCount || marks[next] != p) throw new MalformedJsonException("Unexpected character", p);
+    }
+
+    // endregion
+
+    // region Decoding
+
+    /**
+     * Projected field of a key: a {@link BookFieldsBuffer} field, {@link #YEAR} or {@link #OTHER}.
+     * Keys are matched on their bytes; only keys with escapes are decoded.
+     */
+    private int fieldOf(int from, int to) {
+        switch (to - from) {
+            case 5 -> {
+                if (same(from, TITLE)) return BookFieldsBuffer.TITLE;
+                if (same(from, GENRE)) return BookFieldsBuffer.GENRE;
+            }
+            case 6 -> {
+                if (same(from, AUTHOR)) return BookFieldsBuffer.AUTHOR;
+            }
+            case 13 -> {
+                if (same(from, YEAR_PUBLISHED_CAMEL)) return YEAR;
+            }
+            case 14 -> {
+                if (same(from, YEAR_PUBLISHED)) return YEAR;
+            }
+            default -> {
+            }
+        }
+        if (!contains(from, to, (byte) '\\')) return OTHER;
+        return switch (decodeKey(from, to)) {
+            case "title" -> BookFieldsBuffer.TITLE;
+            case "author" -> BookFieldsBuffer.AUTHOR;
+            case "genre" -> BookFieldsBuffer.GENRE;
+            case "year_published", "yearPublished" -> YEAR;
+            default -> OTHER;
+        };
+    }
+
+    private boolean isName(int from, int to) {
+        if (to - from == NAME.length && same(from, NAME)) return true;
+        return contains(from, to, (byte) '\\') && "name".equals(decodeKey(from, to));
+    }
+
+    private boolean same(int from, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (data[from + i] != name[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the decoded key, or an empty string when its escapes are invalid
+     */
+    private String decodeKey(int from, int to) {
+        StringBuilder key = new StringBuilder(to - from);
+        try {
+            decode(from, to, key::append);
+        } catch (MalformedJsonException e) {
+            return "";
+        }
+        return key.toString();
+    }
+
+    private int parseInt() {
+        int i = valueStart;
+        boolean negative = data[i] == '-';
+        if (negative) i++;
+        if (valueEnd - i > 9) return Integer.parseInt(asciiText());
+        int result = 0;
+        for (; i < valueEnd; i++) result = result * 10 + (data[i] - '0');
+        return negative ? -result : result;
+    }
+
+    private String asciiText() {
+        return new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+    }
+
+    private String decodeString() throws MalformedJsonException {
+        StringBuilder text = new StringBuilder(valueEnd - valueStart);
+        decode(valueStart, valueEnd, text::append);
+        return text.toString();
+    }
+
+    /**
+     * Decodes UTF-8 and JSON escapes between {@code from} and {@code to}.
+     */
+    private void decode(int from, int to, CharSink sink) throws MalformedJsonException {
+        int i = from;
+        while (i < to) {
+            int b = data[i] & 0xFF;
+            if (b == '\\') {
+                if (i + 1 >= to) throw new MalformedJsonException("Invalid escape", i);
+                byte e = data[i + 1];
+                i += 2;
+                switch (e) {
+                    case '"', '\\', '/' -> sink.append((char) e);
+                    case 'b' -> sink.append('\b');
+                    case 'f' -> sink.append('\f');
+                    case 'n' -> sink.append('\n');
+                    case 'r' -> sink.append('\r');
+                    case 't' -> sink.append('\t');
+                    case 'u' -> {
+                        if (i + 4 > to) throw new MalformedJsonException("Invalid escape", i);
+                        int c = 0;
+                        for (int k = 0; k < 4; k++) {
+                            int digit = Character.digit(data[i + k], 16);
+                            if (digit < 0) throw new MalformedJsonException("Invalid escape", i);
+                            c = c * 16 + digit;
+                        }
+                        i += 4;
+                        sink.append((char) c);
+                    }
+                    default -> throw new MalformedJsonException("Invalid escape", i - 1);
+                }
+            } else if (b < 0x80) {
+                sink.append((char) b);
+                i++;
+            } else {
+                int extra;
+                int c;
+                if (b >= 0xF0 && b <= 0xF4) {
+                    extra = 3;
+                    c = b & 0x07;
+                } else if (b >= 0xE0) {
+                    extra = b <= 0xEF ? 2 : -1;
+                    c = b & 0x0F;
+                } else if (b >= 0xC2) {
+                    extra = 1;
+                    c = b & 0x1F;
+                } else {
+                    extra = -1;
+                    c = 0;
+                }
+                if (extra < 0 || i + extra >= to) {
+                    throw new MalformedJsonException("Invalid UTF-8 start byte", i);
+                }
+                for (int k = 1; k <= extra; k++) {
+                    int continuation = data[i + k] & 0xFF;
+                    if ((continuation & 0xC0) != 0x80) {
+                        throw new MalformedJsonException("Invalid UTF-8 middle byte", i + k);
+                    }
+                    c = (c << 6) | (continuation & 0x3F);
+                }
+                i += extra + 1;
+                if (c >= 0x10000) {
+                    sink.append(Character.highSurrogate(c));
+                    sink.append(Character.lowSurrogate(c));
+                } else {
+                    sink.append((char) c);
+                }
+            }
+        }
+    }
+
+    /**
+     * ASCII without escapes: the chars are the bytes.
+     */
+    private boolean isPlainAscii(int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = data[i];
+            if (b < 0 || b == '\\') return false;
+        }
+        return true;
+    }
+
+    private boolean contains(int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) return true;
+        }
+        return false;
+    }
+
+    private boolean literal(int from, int to, String text) {
+        if (to - from != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (data[from + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < length && (data[p] == ' ' || data[p] == '\n' || data[p] == '\r' || data[p] == '\t')) p++;
+        return p;
+    }
+
+    private static boolean endsScalar(byte b) {
+        return b == ',' || b == '}' || b == ']' || b == ':' || b == '"' || b == '{' || b == '[' || b == ' '
+                || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // endregion
+
+    @FunctionalInterface
+    private interface CharSink {
+        void append(char c);
+    }
+
+    static final class MalformedJsonException extends IOException {
+        MalformedJsonException(String message, int position) {
+            super(message + " at byte " + position);
+        }
+    }
+}
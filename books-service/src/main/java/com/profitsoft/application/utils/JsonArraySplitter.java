@@ -0,0 +1,103 @@
+package com.profitsoft.application.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Splits a file with a top-level JSON array into byte ranges that start and end on element boundaries,
+ * so the ranges can be parsed independently (see {@link BookJsonParser#parseFile(Path, ByteRange, java.util.function.Consumer)}).
+ * <p>
+ * The scan only tracks strings, escapes and nesting depth, which is much cheaper than tokenizing.
+ * Ranges are emitted while scanning, so callers can start parsing the first ranges before the scan finishes.
+ */
+public final class JsonArraySplitter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private JsonArraySplitter() {
+    }
+
+    /**
+     * @param chunkSize approximate size of each emitted range in bytes
+     * @param sink      receives ranges in file order; each range holds complete elements separated by commas
+     * @return {@code false} if the root value is not an array (nothing is emitted in that case)
+     */
+    public static boolean split(Path file, long chunkSize, Consumer<ByteRange> sink) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long pos = 0;
+            boolean rootSeen = false;
+            boolean inString = false;
+            boolean escape = false;
+            int depth = 0;
+            long chunkStart = -1;
+            long lastEnd = -1;
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++, pos++) {
+                    byte b = buf[i];
+                    if (inString) {
+                        if (escape) {
+                            escape = false;
+                        } else if (b == '\\') {
+                            escape = true;
+                        } else if (b == '"') {
+                            inString = false;
+                            if (depth == 1) lastEnd = pos + 1;
+                        }
+                        continue;
+                    }
+                    switch (b) {
+                        case ' ', '\t', '\n', '\r', ',', ':' -> {
+                        }
+                        case '"' -> {
+                            if (!rootSeen) return false;
+                            inString = true;
+                            if (depth == 1 && chunkStart < 0) chunkStart = pos;
+                        }
+                        case '{', '[' -> {
+                            if (!rootSeen) {
+                                if (b != '[') return false;
+                                rootSeen = true;
+                                depth = 1;
+                                continue;
+                            }
+                            if (depth == 1) {
+                                if (chunkStart < 0) {
+                                    chunkStart = pos;
+                                } else if (pos - chunkStart >= chunkSize && lastEnd > chunkStart) {
+                                    sink.accept(new ByteRange(chunkStart, lastEnd));
+                                    chunkStart = pos;
+                                }
+                            }
+                            depth++;
+                        }
+                        case '}', ']' -> {
+                            if (!rootSeen) return false;
+                            depth--;
+                            if (depth == 1) {
+                                lastEnd = pos + 1;
+                            } else if (depth == 0) {
+                                if (chunkStart >= 0 && lastEnd > chunkStart) {
+                                    sink.accept(new ByteRange(chunkStart, lastEnd));
+                                }
+                                return true;
+                            }
+                        }
+                        default -> {
+                            if (!rootSeen) return false;
+                        }
+                    }
+                }
+            }
+            // Unterminated array: hand the tail to the parser so the error is reported for that range
+            if (chunkStart >= 0) {
+                sink.accept(new ByteRange(chunkStart, pos));
+            }
+            return rootSeen;
+        }
+    }
+}
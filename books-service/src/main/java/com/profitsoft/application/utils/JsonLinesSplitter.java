@@ -0,0 +1,55 @@
+package com.profitsoft.application.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Splits a JSON Lines file (one value per line) into byte ranges that end after a newline, so the ranges
+ * can be parsed independently. Unlike {@link JsonArraySplitter}, the file is not scanned: the split jumps
+ * to every chunk boundary and only reads forward to the next newline, so even a huge file is split at once.
+ */
+public final class JsonLinesSplitter {
+
+    private static final int PROBE_BYTES = 8 * 1024;
+
+    private JsonLinesSplitter() {
+    }
+
+    /**
+     * @param chunkSize approximate size of each emitted range in bytes
+     * @param sink      receives ranges in file order; each range holds complete lines
+     */
+    public static void split(Path file, long chunkSize, Consumer<ByteRange> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(PROBE_BYTES);
+            long start = 0;
+            while (start < size) {
+                long end = lineEnd(channel, start + Math.max(1, chunkSize) - 1, size, probe);
+                sink.accept(new ByteRange(start, end));
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * @return offset just after the first newline at or after {@code from}, or {@code size} if there is none
+     */
+    private static long lineEnd(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int n = channel.read(probe, position);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') return position + i + 1;
+            }
+            position += n;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,90 @@
+package com.profitsoft.application.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input stream over a memory-mapped {@link ByteRange} of a file. Reads copy straight from the mapped
+ * pages, so for files in the page cache there is no read system call and no kernel-to-user copy.
+ * <p>
+ * Large ranges are mapped one window of at most {@code windowBytes} at a time, which bounds the address
+ * space in use. A window that has been read is unmapped when it is garbage collected.
+ */
+class MappedInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final long end;
+    private final long windowBytes;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    MappedInputStream(Path file, ByteRange range, long windowBytes) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.end = Math.min(range.end(), channel.size());
+        this.windowBytes = windowBytes;
+        this.windowStart = range.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) return -1;
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureWindow()) return -1;
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !ensureWindow()) return 0;
+        long skipped = Math.min(n, remaining());
+        long target = windowStart + window.position() + skipped;
+        if (target < windowStart + window.limit()) {
+            window.position((int) (target - windowStart));
+        } else {
+            windowStart = target;
+            window = null;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, remaining());
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private long remaining() {
+        return window == null ? end - windowStart : end - windowStart - window.position();
+    }
+
+    /**
+     * @return {@code false} at the end of the range
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) return true;
+        if (window != null) {
+            windowStart += window.limit();
+            window = null;
+        }
+        if (windowStart >= end) return false;
+        long size = Math.min(windowBytes, end - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        return true;
+    }
+}
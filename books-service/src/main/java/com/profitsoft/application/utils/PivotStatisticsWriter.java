@@ -0,0 +1,118 @@
+package com.profitsoft.application.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a sparse pivot table (see {@code PivotSpec}) as XML and as CSV. Cells have to be written grouped
+ * by row; only the cells of the current row are held in memory.
+ * <pre>
+ * &lt;pivot rows="genre" columns="decade(year_published)"&gt;
+ *   &lt;row value="Fiction" total="12"&gt;
+ *     &lt;cell column="1990-1999" count="7"/&gt;
+ *     &lt;cell column="2000-2009" count="5"/&gt;
+ *   &lt;/row&gt;
+ * &lt;/pivot&gt;
+ * </pre>
+ * The CSV has a {@code row,column,count} header and one line per cell.
+ */
+@Slf4j
+public class PivotStatisticsWriter implements Closeable {
+
+    private final Path xmlPath;
+    private final OutputStream xmlOut;
+    private final XMLStreamWriter xml;
+    private final BufferedWriter csv;
+    private String row;
+    private final List<String> rowColumns = new ArrayList<>();
+    private final List<Long> rowCounts = new ArrayList<>();
+
+    public PivotStatisticsWriter(Path xmlPath, Path csvPath, String rows, String columns)
+            throws IOException, XMLStreamException {
+        this.xmlPath = xmlPath;
+        Path parent = xmlPath.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        xmlOut = new BufferedOutputStream(Files.newOutputStream(xmlPath));
+        try {
+            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(xmlOut, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("pivot");
+            xml.writeAttribute("rows", rows);
+            xml.writeAttribute("columns", columns);
+            csv = Files.newBufferedWriter(csvPath, StandardCharsets.UTF_8);
+            csv.write("row,column,count");
+            csv.newLine();
+        } catch (IOException | XMLStreamException e) {
+            log.error("Failed to write pivot to {}: {}", xmlPath, e.getMessage());
+            xmlOut.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a cell; all cells of a row have to be written one after another.
+     */
+    public void write(String row, String column, long count) throws IOException, XMLStreamException {
+        if (!row.equals(this.row)) {
+            flushRow();
+            this.row = row;
+        }
+        rowColumns.add(column);
+        rowCounts.add(count);
+        csv.write(csvField(row) + "," + csvField(column) + "," + count);
+        csv.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (OutputStream ignored = xmlOut; BufferedWriter ignoredCsv = csv) {
+            flushRow();
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            log.error("Failed to write pivot to {}: {}", xmlPath, e.getMessage());
+            throw new IOException(e);
+        }
+    }
+
+    private void flushRow() throws XMLStreamException {
+        if (row == null) return;
+        long total = 0;
+        for (long count : rowCounts) total += count;
+        xml.writeStartElement("row");
+        xml.writeAttribute("value", row);
+        xml.writeAttribute("total", String.valueOf(total));
+        for (int i = 0; i < rowColumns.size(); i++) {
+            xml.writeEmptyElement("cell");
+            xml.writeAttribute("column", rowColumns.get(i));
+            xml.writeAttribute("count", String.valueOf(rowCounts.get(i)));
+        }
+        xml.writeEndElement();
+        rowColumns.clear();
+        rowCounts.clear();
+        row = null;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,252 @@
+package com.profitsoft.application.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read stage of a two-stage pipeline: dedicated reader threads fill buffers ahead of the parser threads,
+ * which only consume filled buffers, so disk or network latency overlaps with parsing.
+ * <p>
+ * Buffers come from a shared pool of at most {@code memoryBudget / bufferSize} buffers and are reused.
+ * When all of them are filled and waiting, readers block until a parser hands one back, so read-ahead
+ * never holds more than the budget. Each stream keeps at most {@code buffersPerStream} filled buffers,
+ * so one fast reader cannot take the whole pool.
+ */
+@Slf4j
+public final class ReadAheadPipeline implements Closeable {
+
+    private static final Chunk END = new Chunk(null, -1);
+
+    private final ExecutorService readers;
+    private final BlockingQueue<byte[]> pool = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final int buffersPerStream;
+
+    public ReadAheadPipeline(int readerThreads, int bufferSize, long memoryBudgetBytes, int buffersPerStream) {
+        if (readerThreads < 1 || bufferSize < 1 || buffersPerStream < 1) {
+            throw new IllegalArgumentException("readerThreads, bufferSize and buffersPerStream must be >= 1");
+        }
+        this.readers = Executors.newFixedThreadPool(readerThreads,
+                Thread.ofPlatform().name("read-ahead-", 0).daemon().factory());
+        this.bufferSize = bufferSize;
+        this.maxBuffers = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / bufferSize));
+        this.buffersPerStream = buffersPerStream;
+    }
+
+    /**
+     * Returns a stream whose bytes are read from {@code source} by the reader threads.
+     * The source is opened, read and closed on a reader thread; its errors are rethrown by the returned stream.
+     */
+    public InputStream open(Source source) {
+        ReadAheadStream stream = new ReadAheadStream(source);
+        stream.schedule();
+        return stream;
+    }
+
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    private byte[] acquire() throws InterruptedException {
+        byte[] buffer = pool.poll();
+        if (buffer != null) return buffer;
+        if (allocated.incrementAndGet() <= maxBuffers) {
+            return new byte[bufferSize];
+        }
+        allocated.decrementAndGet();
+        return pool.take();
+    }
+
+    private void release(byte[] buffer) {
+        pool.add(buffer);
+    }
+
+    @FunctionalInterface
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private record Chunk(byte[] data, int length) {
+    }
+
+    private final class ReadAheadStream extends InputStream {
+
+        private final Source source;
+        private final BlockingQueue<Chunk> filled = new LinkedBlockingQueue<>();
+        /**
+         * Filled chunks not yet taken by the parser.
+         */
+        private final AtomicInteger ahead = new AtomicInteger();
+        private final AtomicBoolean fetching = new AtomicBoolean();
+        private volatile boolean done;
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        /**
+         * Only touched by the reader thread that holds {@link #fetching}.
+         */
+        private InputStream in;
+
+        private Chunk current;
+        private int position;
+
+        ReadAheadStream(Source source) {
+            this.source = source;
+        }
+
+        void schedule() {
+            if (done || closed || ahead.get() >= buffersPerStream || !fetching.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                readers.execute(this::fetch);
+            } catch (RejectedExecutionException e) {
+                fetching.set(false);
+                finish(new IOException("Read-ahead pipeline is closed"));
+            }
+        }
+
+        private void fetch() {
+            try {
+                while (!done && !closed && ahead.get() < buffersPerStream) {
+                    byte[] buffer = acquire();
+                    int n;
+                    try {
+                        if (in == null) in = source.open();
+                        n = in.readNBytes(buffer, 0, buffer.length);
+                    } catch (IOException | RuntimeException e) {
+                        release(buffer);
+                        throw e;
+                    }
+                    if (n > 0) {
+                        ahead.incrementAndGet();
+                        filled.add(new Chunk(buffer, n));
+                    } else {
+                        release(buffer);
+                    }
+                    if (n < buffer.length) {
+                        finish(null);
+                    }
+                }
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(new IOException(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finish(new InterruptedIOException("Interrupted while reading ahead"));
+            } finally {
+                fetching.set(false);
+            }
+            if (closed) {
+                if (fetching.compareAndSet(false, true)) closeSource();
+                releaseFilled();
+            } else {
+                schedule();
+            }
+        }
+
+        /**
+         * Called by the reader thread holding {@link #fetching}, or when no reader can run any more.
+         */
+        private void finish(IOException error) {
+            failure = error;
+            done = true;
+            closeSource();
+            filled.add(END);
+        }
+
+        private void closeSource() {
+            if (in == null) return;
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Failed to close read-ahead source: {}", e.getMessage());
+            }
+            in = null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return current.data()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, current.length() - position);
+            System.arraycopy(current.data(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * Makes sure {@link #current} has unread bytes, handing the consumed buffer back to the pool first.
+         *
+         * @return {@code false} at the end of the stream
+         */
+        private boolean fill() throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            while (current == null || position == current.length()) {
+                if (current != null) {
+                    release(current.data());
+                    current = null;
+                }
+                Chunk next;
+                try {
+                    next = filled.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for read-ahead");
+                }
+                if (next == END) {
+                    filled.add(END);
+                    if (failure != null) throw failure;
+                    return false;
+                }
+                ahead.decrementAndGet();
+                schedule();
+                current = next;
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (current != null) {
+                release(current.data());
+                current = null;
+            }
+            if (fetching.compareAndSet(false, true)) {
+                closeSource();
+            }
+            releaseFilled();
+        }
+
+        private void releaseFilled() {
+            Chunk chunk;
+            while ((chunk = filled.poll()) != null) {
+                if (chunk != END) release(chunk.data());
+            }
+        }
+    }
+}
@@ -3,18 +3,52 @@ package com.profitsoft.application.utils;
 import com.profitsoft.application.service.StatisticsService;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.LongSummaryStatistics;
+
 @Slf4j
 public class ResultPrinter {
     public static void print(StatisticsService.StatisticsResult result) {
         log.info("=== Results ===");
         log.info("Files processed: {}", result.fileCount());
+        if (result.partial()) {
+            StatisticsService.Coverage coverage = result.coverage();
+            log.info("PARTIAL: deadline reached after {} of {} files ({} of {} bytes)", coverage.filesDone(),
+                    coverage.filesSeen(), coverage.bytesDone(), coverage.bytesSeen());
+        }
+        if (result.cachedFileCount() > 0) {
+            log.info("Files taken from cache: {}", result.cachedFileCount());
+        }
         log.info("Total books parsed: {}", result.bookCount());
         log.info("Unique values: {}", result.statistics().size());
+        if (result.distinctCount() != result.statistics().size()) {
+            log.info("Distinct values (estimated): {}", result.distinctCount());
+        }
+        if (result.maxCountError() > 0) {
+            log.info("Approximate counts, max error: {}", result.maxCountError());
+        }
+        if (result.sampleFraction() > 0) {
+            log.info("Counts extrapolated from a {}% sample, with 95% confidence intervals",
+                    result.sampleFraction() * 100);
+        }
+        if (!result.workerTimes().isEmpty()) {
+            LongSummaryStatistics busy = result.workerTimes().stream()
+                    .mapToLong(StatisticsService.WorkerTime::busyMs)
+                    .summaryStatistics();
+            log.info("Worker busy time: {}-{} ms over {} workers", busy.getMin(), busy.getMax(), busy.getCount());
+        }
         log.info("");
         log.info("=== Top 10 ===");
         result.statistics().stream()
                 .limit(10)
-                .forEach(it -> log.info("  {}: {}", it.getValue(), it.getCount()));
+                .forEach(it -> {
+                    if (it.getAggregates() != null) {
+                        log.info("  {}: {} {}", it.getValue(), it.getCount(), it.getAggregates());
+                    } else if (it.hasInterval()) {
+                        log.info("  {}: {} [{}-{}]", it.getValue(), it.getCount(), it.getLowerBound(), it.getUpperBound());
+                    } else {
+                        log.info("  {}: {}", it.getValue(), it.getCount());
+                    }
+                });
         log.info("Output: {}", result.outputFile().getAbsolutePath());
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.profitsoft.application.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Stage one of the structural-index scanner (after simdjson): finds the positions of all unescaped quotes
+ * and of the brackets {@code { } [ ]} outside strings, 64 bytes at a time. Colons and commas are left out,
+ * since stage two reaches them by skipping whitespace anyway.
+ * <p>
+ * Each 8-byte word is matched against a character with SWAR bit tricks, the per-byte results are packed
+ * into one 64-bit mask per block, and string interiors are masked out with a prefix-XOR of the quote mask,
+ * so the bytes are never examined one by one. Only blocks containing backslashes take a short scalar pass
+ * to find escaped quotes.
+ */
+final class StructuralIndexer {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long GATHER = 0x0102040810204080L;
+    private static final VarHandle WORDS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private StructuralIndexer() {
+    }
+
+    /**
+     * @return positions in ascending order; the number of valid entries is {@link Index#count()}
+     */
+    static Index index(byte[] data, int length) {
+        int[] positions = new int[Math.max(16, length / 8)];
+        int count = 0;
+        long inStringCarry = 0;
+        boolean escapeCarry = false;
+        byte[] tail = new byte[64];
+
+        for (int base = 0; base < length; base += 64) {
+            byte[] block = data;
+            int offset = base;
+            if (length - base < 64) {
+                Arrays.fill(tail, (byte) ' ');
+                System.arraycopy(data, base, tail, 0, length - base);
+                block = tail;
+                offset = 0;
+            }
+            long quotes = 0;
+            long backslashes = 0;
+            long brackets = 0;
+            for (int w = 0; w < 8; w++) {
+                long word = (long) WORDS.get(block, offset + w * 8);
+                // Setting bit 5 turns '[' and ']' into '{' and '}', so two comparisons cover four brackets
+                long folded = word | (ONES * 0x20);
+                int shift = w * 8;
+                quotes |= gather(zeroBytes(word ^ (ONES * '"'))) << shift;
+                backslashes |= gather(zeroBytes(word ^ (ONES * '\\'))) << shift;
+                brackets |= gather(zeroBytes(folded ^ (ONES * '{')) | zeroBytes(folded ^ (ONES * '}'))) << shift;
+            }
+
+            if (backslashes != 0 || escapeCarry) {
+                long escaped = 0;
+                boolean escapeNext = escapeCarry;
+                for (int i = 0; i < 64; i++) {
+                    if (escapeNext) {
+                        escaped |= 1L << i;
+                        escapeNext = false;
+                    } else if ((backslashes & (1L << i)) != 0) {
+                        escapeNext = true;
+                    }
+                }
+                escapeCarry = escapeNext;
+                quotes &= ~escaped;
+            }
+
+            long inString = prefixXor(quotes) ^ inStringCarry;
+            inStringCarry = inString >> 63;
+
+            long marks = (brackets & ~inString) | quotes;
+            if (count + Long.bitCount(marks) > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(positions.length * 2, count + 64));
+            }
+            while (marks != 0) {
+                positions[count++] = base + Long.numberOfTrailingZeros(marks);
+                marks &= marks - 1;
+            }
+        }
+        return new Index(positions, count, inStringCarry != 0);
+    }
+
+    /**
+     * @param unterminatedString the input ends inside a string
+     */
+    record Index(int[] positions, int count, boolean unterminatedString) {
+    }
+
+    /**
+     * High bit of each byte set exactly when the byte is zero.
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    /**
+     * Packs the high bits of the eight bytes into bits 0..7, bit i for byte i.
+     */
+    private static long gather(long highBits) {
+        return ((highBits >>> 7) * GATHER) >>> 56;
+    }
+
+    /**
+     * Bit i is the XOR of bits 0..i: set from an opening quote up to (not including) its closing quote.
+     */
+    private static long prefixXor(long bits) {
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        bits ^= bits << 8;
+        bits ^= bits << 16;
+        bits ^= bits << 32;
+        return bits;
+    }
+}
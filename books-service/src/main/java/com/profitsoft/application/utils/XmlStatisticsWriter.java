@@ -13,6 +13,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Writer for generating XML statistics files.
@@ -21,6 +22,26 @@ import java.util.List;
 public class XmlStatisticsWriter {
 
     public void writeStatistics(Path outPath, List<StatisticsItem> stats) throws IOException, XMLStreamException {
+        writeStatistics(outPath, stats, -1);
+    }
+
+    /**
+     * Same as {@link #writeStatistics(Path, List)}, recording the number of distinct values
+     * as a {@code distinct} attribute of the root element (omitted when negative).
+     */
+    public void writeStatistics(Path outPath, List<StatisticsItem> stats, long distinctCount)
+            throws IOException, XMLStreamException {
+        writeStatistics(outPath, (Iterable<StatisticsItem>) stats, distinctCount);
+    }
+
+    /**
+     * Streams the items as they are iterated, so they do not have to be held in memory. Counts estimated
+     * from a sample carry their confidence interval as {@code lower} and {@code upper} attributes.
+     * Items with {@link StatisticsItem.Aggregates} get a {@code <year min=".." max=".." mean=".."/>}
+     * and a {@code <distinctAuthors>} element for the aggregations that were computed.
+     */
+    public void writeStatistics(Path outPath, Iterable<StatisticsItem> stats, long distinctCount)
+            throws IOException, XMLStreamException {
         if (stats == null) stats = Collections.emptyList();
         Path parent = outPath.getParent();
         if (parent != null) {
@@ -32,6 +53,9 @@ public class XmlStatisticsWriter {
             try {
                 writer.writeStartDocument("UTF-8", "1.0");
                 writer.writeStartElement("statistics");
+                if (distinctCount >= 0) {
+                    writer.writeAttribute("distinct", String.valueOf(distinctCount));
+                }
 
                 for (StatisticsItem item : stats) {
                     writer.writeStartElement("item");
@@ -42,9 +66,17 @@ public class XmlStatisticsWriter {
                     writer.writeEndElement();
 
                     writer.writeStartElement("count");
+                    if (item.hasInterval()) {
+                        writer.writeAttribute("lower", String.valueOf(item.getLowerBound()));
+                        writer.writeAttribute("upper", String.valueOf(item.getUpperBound()));
+                    }
                     writer.writeCharacters(String.valueOf(item.getCount()));
                     writer.writeEndElement();
 
+                    if (item.getAggregates() != null) {
+                        writeAggregates(writer, item.getAggregates());
+                    }
+
                     writer.writeEndElement();
                 }
 
@@ -62,4 +94,19 @@ public class XmlStatisticsWriter {
             throw e;
         }
     }
+
+    private static void writeAggregates(XMLStreamWriter writer, StatisticsItem.Aggregates aggregates)
+            throws XMLStreamException {
+        if (aggregates.minYear() != null) {
+            writer.writeEmptyElement("year");
+            writer.writeAttribute("min", String.valueOf(aggregates.minYear()));
+            writer.writeAttribute("max", String.valueOf(aggregates.maxYear()));
+            writer.writeAttribute("mean", String.format(Locale.ROOT, "%.2f", aggregates.meanYear()));
+        }
+        if (aggregates.distinctAuthors() != null) {
+            writer.writeStartElement("distinctAuthors");
+            writer.writeCharacters(String.valueOf(aggregates.distinctAuthors()));
+            writer.writeEndElement();
+        }
+    }
 }
\ No newline at end of file
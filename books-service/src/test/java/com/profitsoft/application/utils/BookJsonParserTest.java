@@ -1,10 +1,22 @@
 package com.profitsoft.application.utils;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.profitsoft.application.dto.BookFields;
+import com.profitsoft.application.dto.BookPojo;
 import com.profitsoft.application.entities.Book;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -23,4 +35,112 @@ public class BookJsonParserTest {
         p.parseFile(tmp, (Book b) -> cnt.incrementAndGet());
         assertEquals(2, cnt.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    void parseFile_decoderShouldMatchDataBinding() throws Exception {
+        String json = "[{\"title\":\"A\",\"author\":{\"id\":7,\"name\":\" Poe \",\"birth_year\":\" 1809 \","
+                + "\"country\":\"US\",\"books\":[1]},\"year_published\":\"1845\",\"genre\":\"Horror; Poetry /, \"},"
+                + "{\"title\":1.50,\"author\":[1,\"b\"],\"yearPublished\":1818.7,\"genre\":[\" x \",null,1.50,[\"y\"]]},"
+                + "{\"id\":3,\"author\":42,\"genre\":{\"a\":1}},"
+                + "{\"title\":\"B\",\"author\":\"Shelley\",\"genre\":null,\"year_published\":null}]";
+        Path tmp = Files.createTempFile("books", ".json");
+        Files.writeString(tmp, json);
+        ObjectMapper mapper = new ObjectMapper();
+        List<Book> expected = List.of(mapper.readValue(json, Book[].class));
+
+        List<Book> actual = new ArrayList<>();
+        new BookJsonParser().parseFile(tmp, actual::add);
+        assertEquals(expected, actual);
+        assertEquals(expected.get(0).getAuthor(), actual.get(0).getAuthor());
+        assertEquals(3L, actual.get(2).getId());
+
+        List<BookPojo> pojos = new ArrayList<>();
+        Path upload = Files.createTempFile("books", ".json");
+        Files.writeString(upload, "[{\"title\":\"A\",\"author\":{\"id\":7,\"name\":\"Poe\"},\"genres\":[\"x\",null,1]},"
+                + "{\"title\":\"B\",\"authorId\":\"9\",\"author\":\"Shelley\",\"year_published\":2000}]");
+        new BookJsonParser().parseFileAsPojo(upload, pojos::add);
+        assertEquals(7L, pojos.get(0).getAuthorIdValue());
+        assertEquals("Poe", pojos.get(0).getAuthorName());
+        assertEquals(Arrays.asList("x", null, "1"), pojos.get(0).getGenres());
+        assertEquals(9L, pojos.get(1).getAuthorIdValue());
+        assertEquals(2000, pojos.get(1).getYear_published());
+
+        Path invalid = Files.createTempFile("books", ".json");
+        Files.writeString(invalid, "[{\"title\":\"A\",\"author\":{\"name\":\" \"}}]");
+        assertThrows(JsonMappingException.class, () -> new BookJsonParser().parseFile(invalid, b -> { }));
+        Files.writeString(invalid, "[{\"title\":\"A\",\"isbn\":\"1\"}]");
+        assertThrows(UnrecognizedPropertyException.class, () -> new BookJsonParser().parseFile(invalid, b -> { }));
+    }
+
+    @Test
+    void scanFile_shouldProjectOnlyRequestedAttributes() throws Exception {
+        String json = "[{\"title\":\"A\",\"author\":{\"name\":\" X \"},\"isbn\":\"1\",\"genre\":\"Romance, Tragedy\"}]";
+        Path tmp = Files.createTempFile("books", ".json");
+        Files.writeString(tmp, json);
+        BookJsonParser p = new BookJsonParser();
+        List<BookFields> books = new ArrayList<>();
+        p.scanFile(tmp, Set.of("author", "genre"), books::add);
+        assertEquals(List.of(new BookFields(null, "X", null, List.of("Romance", "Tragedy"))), books);
+    }
+
+    @Test
+    void scanFile_indexedBackendShouldMatchJackson() throws Exception {
+        String json = "[{\"title\":\"Caf\u00e9 \\\"Noir\\\" \\u00e9 \\\\\","
+                + "\"author\":{\"id\":1,\"name\":\" \uD83D\uDCDA Poe \"},"
+                + "\"meta\":{\"note\":\"} ] { [ , : \\\"\",\"tags\":[[1,2],{\"x\":null}]},"
+                + "\"year_published\":\" 1845 \",\"genre\":[\" Horror \",null,[\"nested\"],7,\"\"]},"
+                + "{\"title\":42,\"author\":\"Shelley\",\"yearPublished\":1818.0,\"genre\":\"Gothic; Sci-Fi /Horror\"},"
+                + "  17 , {\"ti\\u0074le\":\"Escaped key\",\"author\":\"A\",\"title\":\"Last wins\","
+                + "\"year_published\":null},"
+                + "{\"title\":true,\"author\":\"B\",\"genre\":null,\"year_published\":2000}, {} ]";
+        Path tmp = Files.createTempFile("books", ".json");
+        Files.writeString(tmp, json);
+        Set<String> attributes = Set.of("title", "author", "year_published", "genre");
+        BookJsonParser jackson = new BookJsonParser();
+        BookJsonParser indexed = new BookJsonParser();
+        indexed.setScanBackend(BookJsonParser.ScanBackend.STRUCTURAL_INDEX);
+
+        List<BookFields> expected = new ArrayList<>();
+        List<BookFields> actual = new ArrayList<>();
+        jackson.scanFile(tmp, attributes, expected::add);
+        indexed.scanFile(tmp, attributes, actual::add);
+
+        assertEquals(5, expected.size());
+        assertEquals(new BookFields("Caf\u00e9 \"Noir\" \u00e9 \\", "\uD83D\uDCDA Poe", 1845, List.of("Horror", "7")),
+                expected.getFirst());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void scanFile_indexedBackendShouldRejectLikeJackson() throws Exception {
+        BookJsonParser indexed = new BookJsonParser();
+        indexed.setScanBackend(BookJsonParser.ScanBackend.STRUCTURAL_INDEX);
+        Path malformed = Files.createTempFile("books", ".json");
+        Files.writeString(malformed, "[{\"title\":\"A\",\"author\" \"X\"}]");
+        Path noAuthor = Files.createTempFile("books", ".json");
+        Files.writeString(noAuthor, "[{\"title\":\"A\",\"author\":{\"name\":\"  \"}}]");
+        Path badYear = Files.createTempFile("books", ".json");
+        Files.writeString(badYear, "[{\"title\":\"A\",\"year_published\":-5}]");
+
+        assertThrows(IOException.class, () -> indexed.scanFile(malformed, Set.of("title"), b -> { }));
+        assertThrows(IllegalArgumentException.class, () -> indexed.scanFile(noAuthor, Set.of("author"), b -> { }));
+        assertThrows(IllegalArgumentException.class,
+                () -> indexed.scanFile(badYear, Set.of("year_published"), b -> { }));
+    }
+
+    @Test
+    void mappedInput_shouldReadRangeAcrossWindows() throws Exception {
+        byte[] content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        Path tmp = Files.createTempFile("books", ".json");
+        Files.write(tmp, content);
+
+        try (MappedInputStream in = new MappedInputStream(tmp, new ByteRange(100, 9_000), 1024)) {
+            assertEquals(100, in.read());
+            assertEquals(1000, in.skip(1000));
+            byte[] rest = in.readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(content, 1101, 9_000), rest);
+            assertEquals(-1, in.read());
+        }
+    }
+}
@@ -1,13 +1,34 @@
 package com.profitsoft.application.utils;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.AssertionsForClassTypes.tuple;
+import com.profitsoft.application.entities.Book;
 import com.profitsoft.application.entities.StatisticsItem;
+import com.profitsoft.application.service.BookFilter;
 import com.profitsoft.application.service.StatisticsService;
+import com.profitsoft.application.service.StatisticsWatcher;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -185,6 +206,921 @@ class StatisticsServiceTest {
     }
     // endregion
 
+    // region Projection mode
+    @Test
+    @DisplayName("Projection mode should produce the same statistics as full parsing for every attribute")
+    void testProjectionMatchesFullParsing() throws Exception {
+        String jsonContent = """
+            [
+              {
+                "title": "1984",
+                "author": "George Orwell",
+                "year_published": 1949,
+                "genre": "Dystopian, Political Fiction"
+              },
+              {
+                "title": "Animal Farm",
+                "author": { "name": "George Orwell", "country": "UK", "birth_year": 1903 },
+                "yearPublished": 1945,
+                "genre": ["Satire", " Political Fiction "]
+              },
+              {
+                "title": "Emma",
+                "author": "Jane Austen",
+                "year_published": 1815,
+                "genre": "Romance; Satire / Comedy"
+              }
+            ]
+            """;
+        Files.writeString(tempDir.resolve("books.json"), jsonContent);
+
+        StatisticsService projecting = new StatisticsService(new BookJsonParser());
+        projecting.setProjection(true);
+
+        for (String attribute : List.of("title", "author", "year_published", "genre")) {
+            var full = service.processDirectory(tempDir.toFile(), attribute, 2);
+            var projected = projecting.processDirectory(tempDir.toFile(), attribute, 2);
+
+            assertThat(projected.errorCount()).isEqualTo(0);
+            assertThat(projected.bookCount()).isEqualTo(full.bookCount());
+            assertThat(projected.statistics()).isEqualTo(full.statistics());
+        }
+    }
+
+    @Test
+    @DisplayName("Projection mode should reject invalid projected values like the entity setters do")
+    void testProjectionValidatesProjectedAttribute() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [{"title":"A","author":"X","year_published":-5}]
+            """);
+
+        StatisticsService projecting = new StatisticsService(new BookJsonParser());
+        projecting.setProjection(true);
+
+        var result = projecting.processDirectory(tempDir.toFile(), "year_published", 1);
+
+        assertThat(result.errorCount()).isEqualTo(1);
+        assertThat(result.statistics()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should fold case and trim buffered text the same way as strings")
+    void testProjectionCaseFoldingFromBuffer() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"Old", "title":" dune ", "author":{"name":" Émile "}, "genre":["SCI-FI", " sci-fi "]},
+              {"title":"DUNE", "author":"ÉMILE", "genre":"Sci-Fi; ; Épopée"},
+              {"title":"Dune\\t", "author":"émile", "genre":"épopée"}
+            ]
+            """);
+        service.setProjection(true);
+
+        var results = service.processDirectory(tempDir.toFile(), List.of("title", "author", "genre"), 2);
+
+        assertThat(results.get("title").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Dune", 3L));
+        assertThat(results.get("author").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Émile", 3L));
+        assertThat(results.get("genre").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Sci-fi", 3L), tuple("Épopée", 2L));
+    }
+    // endregion
+
+    // region Parallel aggregation
+    @Test
+    @DisplayName("Should merge per-thread partial counts into exact totals")
+    void testMergesPartialCountsAcrossThreads() throws Exception {
+        for (int f = 0; f < 16; f++) {
+            Files.writeString(tempDir.resolve("books" + f + ".json"), """
+                [
+                  {"title":"A","author":"X","genre":"Fiction, Drama"},
+                  {"title":"B","author":"Y","genre":"fiction"},
+                  {"title":"C","author":"Z","genre":"Drama"}
+                ]
+                """);
+        }
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 8);
+
+        assertThat(result.bookCount()).isEqualTo(48);
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Drama", 32L), tuple("Fiction", 32L));
+    }
+
+    @Test
+    @DisplayName("Should produce the same totals on limited virtual threads")
+    void testVirtualThreadExecutor() throws Exception {
+        for (int f = 0; f < 16; f++) {
+            Files.writeString(tempDir.resolve("books" + f + ".json"), """
+                [
+                  {"title":"A","author":"X","genre":"Fiction, Drama"},
+                  {"title":"B","author":"Y","genre":"fiction"}
+                ]
+                """);
+        }
+        service.setExecutorMode(StatisticsService.ExecutorMode.VIRTUAL);
+        service.setDetectPinnedThreads(true);
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 3);
+
+        assertThat(result.bookCount()).isEqualTo(32);
+        assertThat(result.pinnedThreadEvents()).isNotNegative();
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Fiction", 32L), tuple("Drama", 16L));
+    }
+
+    @Test
+    @DisplayName("Should report busy and idle time of every worker")
+    void testReportsWorkerTimes() throws Exception {
+        for (int f = 0; f < 8; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < (f == 7 ? 20000 : 500); i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"T").append(i).append("\",\"genre\":\"Drama\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+
+        for (StatisticsService.ExecutorMode mode : StatisticsService.ExecutorMode.values()) {
+            service.setExecutorMode(mode);
+            var result = service.processDirectory(tempDir.toFile(), "genre", 3);
+
+            assertThat(result.bookCount()).isEqualTo(23500);
+            assertThat(result.workerTimes()).isNotEmpty().hasSizeLessThanOrEqualTo(3);
+            assertThat(result.workerTimes())
+                    .allSatisfy(worker -> assertThat(worker.busyMs() + worker.idleMs())
+                            .isLessThanOrEqualTo(result.parsingTimeMs() + 1));
+            assertThat(result.workerTimes())
+                    .extracting(StatisticsService.WorkerTime::worker)
+                    .doesNotHaveDuplicates();
+        }
+    }
+    // endregion
+
+    // region Intra-file splitting
+    @Test
+    @DisplayName("Should split a large array file into chunks and produce the same statistics")
+    void testSplitLargeArrayFile() throws Exception {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) json.append(",\n");
+            // braces, brackets and escaped quotes inside strings must not confuse the splitter
+            json.append("{\"title\":\"T{").append(i % 7).append("]\\\"\",")
+                    .append("\"author\":{\"name\":\"Author ").append(i % 5).append("\"},")
+                    .append("\"genre\":[\"G").append(i % 3).append("\"]}");
+        }
+        json.append("\n]");
+        Path big = tempDir.resolve("big.json");
+        Files.writeString(big, json.toString());
+
+        List<ByteRange> ranges = new ArrayList<>();
+        assertThat(JsonArraySplitter.split(big, 1024, ranges::add)).isTrue();
+        assertThat(ranges).hasSizeGreaterThan(1);
+
+        var whole = service.processDirectory(tempDir.toFile(), "author", 4);
+
+        StatisticsService splitting = new StatisticsService(new BookJsonParser());
+        splitting.setSplitChunkBytes(1024);
+        var split = splitting.processDirectory(tempDir.toFile(), "author", 4);
+
+        assertThat(split.errorCount()).isEqualTo(0);
+        assertThat(split.bookCount()).isEqualTo(500);
+        assertThat(split.statistics()).isEqualTo(whole.statistics());
+    }
+
+    @Test
+    @DisplayName("Should read ahead on reader threads within a small memory budget")
+    void testReadAheadPipeline() throws Exception {
+        for (int f = 0; f < 6; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 20000; i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"T").append(i)
+                        .append("\",\"genre\":\"").append(i % 2 == 0 ? "Fiction" : "Drama").append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        Files.writeString(tempDir.resolve("broken.json"), "[{\"title\":\"X\",\"genre\":\"Fiction\"}");
+        service.setReadAheadBytes(256 * 1024);
+        service.setReaderThreads(1);
+        service.setSplitChunkBytes(128 * 1024);
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 4);
+
+        assertThat(result.bookCount()).isEqualTo(120001);
+        assertThat(result.errorCount()).isEqualTo(1);
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Fiction", 60001L), tuple("Drama", 60000L));
+    }
+
+    @Test
+    @DisplayName("Should read memory-mapped files and split ranges")
+    void testMemoryMappedInput() throws Exception {
+        for (int f = 0; f < 3; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 20000; i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"T").append(i)
+                        .append("\",\"genre\":\"").append(i % 2 == 0 ? "Fiction" : "Drama").append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        Files.writeString(tempDir.resolve("empty.json"), "");
+        BookJsonParser parser = new BookJsonParser();
+        parser.setMemoryMapped(true);
+        StatisticsService mapped = new StatisticsService(parser);
+        mapped.setSplitChunkBytes(128 * 1024);
+
+        var result = mapped.processDirectory(tempDir.toFile(), "genre", 4);
+
+        assertThat(result.bookCount()).isEqualTo(60000);
+        assertThat(result.errorCount()).isZero();
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Drama", 30000L), tuple("Fiction", 30000L));
+    }
+    // endregion
+
+    // region Compressed input
+    @Test
+    @DisplayName("Should read gzip files and fan out the entries of zip archives")
+    void testCompressedAndArchivedInput() throws Exception {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempDir.resolve("a.json.gz")))) {
+            out.write("[{\"title\":\"A\",\"genre\":\"Fiction\"},{\"title\":\"B\",\"genre\":\"Drama\"}]"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(tempDir.resolve("bundle.zip")))) {
+            zip.putNextEntry(new ZipEntry("part1.json"));
+            zip.write("[{\"title\":\"C\",\"genre\":\"Fiction\"}]".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("nested/part2.json.gz"));
+            GZIPOutputStream gzip = new GZIPOutputStream(zip);
+            gzip.write("[{\"title\":\"D\",\"genre\":\"Fiction\"}]".getBytes(StandardCharsets.UTF_8));
+            gzip.finish();
+            zip.putNextEntry(new ZipEntry("broken.json"));
+            zip.write("[{\"title\":".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("readme.txt"));
+            zip.write("not books".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        service.setSplitChunkBytes(16);
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 4);
+
+        assertThat(result.fileCount()).isEqualTo(2);
+        assertThat(result.bookCount()).isEqualTo(4);
+        assertThat(result.errorCount()).isEqualTo(1);
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Fiction", 3L), tuple("Drama", 1L));
+    }
+
+    @Test
+    @DisplayName("Should read Zstandard-compressed JSON files")
+    void testZstdInput() throws Exception {
+        // zstd-jni is only a runtime dependency (through the Kafka client), like in CompressedInput
+        Class<?> zstd = Class.forName("com.github.luben.zstd.ZstdOutputStream");
+        try (OutputStream out = (OutputStream) zstd.getConstructor(OutputStream.class)
+                .newInstance(Files.newOutputStream(tempDir.resolve("books.json.zst")))) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 500; i++) {
+                if (i > 0) json.append(',');
+                json.append("{\"title\":\"T").append(i).append("\",\"genre\":\"")
+                        .append(i % 5 == 0 ? "Fiction" : "Drama").append("\"}");
+            }
+            out.write(json.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        }
+        Files.writeString(tempDir.resolve("plain.json"), "[{\"title\":\"A\",\"genre\":\"Fiction\"}]");
+        service.setSplitChunkBytes(64);
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 4);
+
+        assertThat(result.fileCount()).isEqualTo(2);
+        assertThat(result.bookCount()).isEqualTo(501);
+        assertThat(result.errorCount()).isZero();
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Drama", 400L), tuple("Fiction", 101L));
+    }
+
+    @Test
+    @DisplayName("Should read JSON Lines files and split them at line boundaries")
+    void testJsonLinesInput() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            lines.append("{\"title\":\"T").append(i).append("\\n\",\"genre\":\"")
+                    .append(i % 3 == 0 ? "Fiction" : "Drama").append("\"}\n");
+            if (i % 100 == 0) lines.append("\n");
+        }
+        Files.writeString(tempDir.resolve("books.ndjson"), lines.toString());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempDir.resolve("more.jsonl.gz")))) {
+            out.write("{\"title\":\"A\",\"genre\":\"Fiction\"}\n{\"title\":\"B\",\"genre\":\"Fiction\"}"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        JsonLinesSplitter.split(tempDir.resolve("books.ndjson"), 4096, ranges::add);
+        assertThat(ranges).hasSizeGreaterThan(1);
+        assertThat(ranges.getLast().end()).isEqualTo(Files.size(tempDir.resolve("books.ndjson")));
+
+        BookJsonParser indexed = new BookJsonParser();
+        indexed.setScanBackend(BookJsonParser.ScanBackend.STRUCTURAL_INDEX);
+        for (BookJsonParser parser : List.of(new BookJsonParser(), indexed)) {
+            StatisticsService splitting = new StatisticsService(parser);
+            splitting.setSplitChunkBytes(4096);
+            splitting.setProjection(parser == indexed);
+
+            var result = splitting.processDirectory(tempDir.toFile(), "genre", 4);
+
+            assertThat(result.bookCount()).isEqualTo(3002);
+            assertThat(result.errorCount()).isZero();
+            assertThat(result.statistics())
+                    .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                    .containsExactly(tuple("Drama", 2000L), tuple("Fiction", 1002L));
+        }
+    }
+    // endregion
+
+    // region Directory listing
+    @Test
+    @DisplayName("Should list subdirectories lazily and filter files by glob")
+    void testRecursiveListingWithGlob() throws Exception {
+        for (int d = 0; d < 3; d++) {
+            Path sub = Files.createDirectories(tempDir.resolve("part" + d).resolve("books"));
+            for (int f = 0; f < 600; f++) {
+                Files.writeString(sub.resolve("b" + f + ".json"), "[{\"title\":\"T\",\"genre\":\"G" + d + "\"}]");
+            }
+        }
+        Files.writeString(tempDir.resolve("top.json"), "[{\"title\":\"T\",\"genre\":\"Top\"}]");
+        Files.writeString(tempDir.resolve("part0").resolve("notes.txt"), "not books");
+
+        var flat = service.processDirectory(tempDir.toFile(), "genre", 4);
+        assertThat(flat.fileCount()).isEqualTo(1);
+
+        service.setRecursive(true);
+        var all = service.processDirectory(tempDir.toFile(), "genre", 4);
+        assertThat(all.fileCount()).isEqualTo(1801);
+        assertThat(all.errorCount()).isZero();
+        assertThat(all.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("G0", 600L), tuple("G1", 600L), tuple("G2", 600L), tuple("Top", 1L));
+
+        service.setInputGlob("part1/**.json");
+        var filtered = service.processDirectory(tempDir.toFile(), "genre", 4);
+        assertThat(filtered.fileCount()).isEqualTo(600);
+        assertThat(filtered.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("G1", 600L));
+    }
+
+    @Test
+    @DisplayName("Should submit the largest listed file first even when it is listed after many small ones")
+    void testLargestFileFirst() throws Exception {
+        for (int f = 0; f < 100; f++) {
+            Files.writeString(tempDir.resolve("small" + f + ".json"), "[{\"title\":\"T\",\"genre\":\"Small\"}]");
+        }
+        StringBuilder large = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            large.append(i > 0 ? "," : "").append("{\"title\":\"T").append(i).append("\",\"genre\":\"Large\"}");
+        }
+        Files.writeString(tempDir.resolve("large.json"), large.append(']'));
+        List<String> parsed = Collections.synchronizedList(new ArrayList<>());
+        BookJsonParser recording = new BookJsonParser() {
+            @Override
+            public void parseFile(Path file, ByteRange range, Consumer<Book> consumer)
+                    throws IOException {
+                parsed.add(file.getFileName().toString());
+                if (parsed.size() == 1) {
+                    // Keep the only worker busy until every file has been listed
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.parseFile(file, range, consumer);
+            }
+        };
+        StatisticsService ordered = new StatisticsService(recording);
+        ordered.setProjection(false);
+        ordered.setSplitChunkBytes(0);
+
+        var result = ordered.processDirectory(tempDir.toFile(), "genre", 1);
+
+        assertThat(result.fileCount()).isEqualTo(101);
+        assertThat(result.bookCount()).isEqualTo(1100);
+        // One file is running and one more was submitted before the rest were listed
+        assertThat(parsed.indexOf("large.json")).isLessThanOrEqualTo(2);
+    }
+    // endregion
+
+    // region Deadline
+    @Test
+    @DisplayName("Should report coverage and return partial statistics once the deadline has passed")
+    void testDeadline() throws Exception {
+        for (int f = 0; f < 20; f++) {
+            Files.writeString(tempDir.resolve("b" + f + ".json"), "[{\"title\":\"T\",\"genre\":\"Drama\"}]");
+        }
+        long bytes;
+        try (var files = Files.list(tempDir)) {
+            bytes = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+
+        var complete = service.processDirectory(tempDir.toFile(), List.of("genre"), 4,
+                Instant.now().plusSeconds(600)).get("genre");
+        assertThat(complete.partial()).isFalse();
+        assertThat(complete.coverage()).isEqualTo(new StatisticsService.Coverage(20, 20, bytes, bytes));
+        assertThat(complete.bookCount()).isEqualTo(20);
+
+        var expired = service.processDirectory(tempDir.toFile(), List.of("genre"), 4,
+                Instant.now().minusSeconds(1)).get("genre");
+        assertThat(expired.partial()).isTrue();
+        assertThat(expired.coverage().filesDone()).isZero();
+        assertThat(expired.bookCount()).isZero();
+        assertThat(expired.outputFile()).exists();
+    }
+    // endregion
+
+    // region Filters
+    @Test
+    @DisplayName("Should count only books matching every filter condition")
+    void testFiltersBooks() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"A","author":"Poe","year_published":1845,"genre":"Horror, Poetry"},
+              {"title":"B","author":{"name":" poe "},"year_published":2001,"genre":"Horror"},
+              {"title":"C","author":"Shelley","year_published":2010,"genre":"Gothic Fiction"},
+              {"title":"D","author":"King","year_published":2005,"genre":"Horror"},
+              {"title":"E","author":"Shelley","genre":"Gothic"}
+            ]
+            """);
+        service.setFilter(BookFilter.parse(List.of("year_published >= 2000", "author in (POE, 'Shelley')")));
+
+        for (boolean projection : new boolean[]{false, true}) {
+            service.setProjection(projection);
+            var result = service.processDirectory(tempDir.toFile(), "genre", 2);
+
+            assertThat(result.bookCount()).isEqualTo(2);
+            assertThat(result.statistics())
+                    .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                    .containsExactly(tuple("Gothic Fiction", 1L), tuple("Horror", 1L));
+        }
+
+        service.setFilter(BookFilter.parse(List.of("genre contains goth", "title != c")));
+        var gothic = service.processDirectory(tempDir.toFile(), "author", 2);
+        assertThat(gothic.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Shelley", 1L));
+
+        assertThatThrownBy(() -> BookFilter.parse(List.of("year_published contains 2000")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BookFilter.parse(List.of("isbn = 1")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    // endregion
+
+    // region Multi-attribute
+    @Test
+    @DisplayName("Should compute several attributes in one pass with one XML file per attribute")
+    void testMultipleAttributesInOnePass() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"1984","author":"George Orwell","year_published":1949,"genre":"Dystopian"},
+              {"title":"Animal Farm","author":"George Orwell","year_published":1945,"genre":"Satire, Dystopian"}
+            ]
+            """);
+
+        var results = service.processDirectory(tempDir.toFile(), List.of("Author", "genre", "year_published"), 2);
+
+        assertThat(results).containsOnlyKeys("author", "genre", "year_published");
+        assertThat(results.get("author").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("George Orwell", 2L));
+        assertThat(results.get("genre").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Dystopian", 2L), tuple("Satire", 1L));
+        assertThat(results.get("year_published").statistics()).hasSize(2);
+        assertThat(results.values()).allSatisfy(r -> {
+            assertThat(r.bookCount()).isEqualTo(2);
+            assertThat(r.outputFile()).exists();
+        });
+        assertThat(results.get("genre").outputFile().getName()).isEqualTo("statistics_by_genre.xml");
+    }
+    // endregion
+
+    // region Aggregations
+    @Test
+    @DisplayName("Should compute year range, distinct authors and genre pairs in the same pass")
+    void testAggregations() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"A","author":"Poe","year_published":1840,"genre":"Horror, Mystery"},
+              {"title":"B","author":"poe","year_published":1845,"genre":"horror"},
+              {"title":"C","author":"Shelley","year_published":1818,"genre":"Horror, Fiction, Mystery"},
+              {"title":"D","author":"Austen","genre":"Fiction"}
+            ]
+            """);
+        service.setProjection(true);
+        service.setAggregations(EnumSet.allOf(StatisticsService.Aggregation.class));
+
+        var results = service.processDirectory(tempDir.toFile(), List.of("genre", "genre_pair"), 2);
+
+        assertThat(results.get("genre").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount, StatisticsItem::getAggregates)
+                .containsExactly(
+                        tuple("Horror", 3L, new StatisticsItem.Aggregates(1818, 1845, 1834.3333333333333, 2L)),
+                        tuple("Fiction", 2L, new StatisticsItem.Aggregates(1818, 1818, 1818.0, 2L)),
+                        tuple("Mystery", 2L, new StatisticsItem.Aggregates(1818, 1840, 1829.0, 2L)));
+        assertThat(results.get("genre_pair").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Horror + Mystery", 2L), tuple("Fiction + Horror", 1L),
+                        tuple("Fiction + Mystery", 1L));
+        assertThat(Files.readString(results.get("genre").outputFile().toPath()))
+                .contains("<value>Horror</value><count>3</count><year min=\"1818\" max=\"1845\" mean=\"1834.33\"/>"
+                        + "<distinctAuthors>2</distinctAuthors>");
+    }
+
+    @Test
+    @DisplayName("Should only aggregate the title, author and genre attributes")
+    void testAggregationsSkipOtherAttributes() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"A","author":"Poe","year_published":1840,"genre":"Horror"},
+              {"title":"B","author":"Shelley","year_published":1840,"genre":"Horror"},
+              {"title":"C","year_published":1818,"genre":"Fiction"}
+            ]
+            """);
+        service.setAggregations(EnumSet.of(StatisticsService.Aggregation.DISTINCT_AUTHORS));
+
+        var results = service.processDirectory(tempDir.toFile(), List.of("year_published", "genre"), 2);
+
+        assertThat(results.get("year_published").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount, StatisticsItem::getAggregates)
+                .containsExactly(tuple("1840", 2L, null), tuple("1818", 1L, null));
+        assertThat(Files.readString(results.get("year_published").outputFile().toPath()))
+                .doesNotContain("<distinctAuthors>", "<year ");
+        assertThat(results.get("genre").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getAggregates)
+                .containsExactly(tuple("Horror", new StatisticsItem.Aggregates(null, null, null, 2L)),
+                        tuple("Fiction", null));
+    }
+    // endregion
+
+    // region Pivot
+    @Test
+    @DisplayName("Should count attribute pairs into a sparse matrix with bucketed years")
+    void testPivot() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"A","author":"Poe","year_published":1841,"genre":"Horror, Mystery"},
+              {"title":"B","author":"poe","year_published":1845,"genre":"horror"},
+              {"title":"C","author":"Shelley","year_published":1818,"genre":"Horror"},
+              {"title":"D","author":"Austen","genre":"Romance"}
+            ]
+            """);
+
+        var results = service.processDirectory(tempDir.toFile(),
+                List.of("Genre x decade(Year_Published)", "author x genre"), 2);
+
+        var byDecade = results.get("genre x decade(year_published)");
+        assertThat(byDecade.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Horror x 1810-1819", 1L), tuple("Horror x 1840-1849", 2L),
+                        tuple("Mystery x 1840-1849", 1L));
+        assertThat(Files.readString(byDecade.outputFile().toPath()))
+                .contains("<pivot rows=\"genre\" columns=\"decade(year_published)\">")
+                .contains("<row value=\"Horror\" total=\"3\"><cell column=\"1810-1819\" count=\"1\"/>"
+                        + "<cell column=\"1840-1849\" count=\"2\"/></row>");
+
+        var byAuthor = results.get("author x genre");
+        Path csv = byAuthor.outputFile().toPath().resolveSibling("statistics_by_author_x_genre.csv");
+        assertThat(Files.readAllLines(csv)).containsExactly("row,column,count",
+                "Austen,Romance,1", "Poe,Horror,2", "Poe,Mystery,1", "Shelley,Horror,1");
+        assertThatThrownBy(() -> service.processDirectory(tempDir.toFile(), List.of("title x decade(genre)"), 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    // endregion
+
+    // region Incremental cache
+    @Test
+    @DisplayName("Should reuse cached partials for unchanged files and re-parse changed ones")
+    void testIncrementalCache() throws Exception {
+        Path input = Files.createDirectory(tempDir.resolve("input"));
+        Path cacheDir = tempDir.resolve("cache");
+        Files.writeString(input.resolve("a.json"), """
+            [{"title":"A","author":"X","genre":"Fiction"}]
+            """);
+        Files.writeString(input.resolve("b.json"), """
+            [{"title":"B","author":"Y","genre":"Drama"}]
+            """);
+
+        StatisticsService caching = new StatisticsService(new BookJsonParser());
+        caching.setCacheDirectory(cacheDir.toFile());
+
+        var first = caching.processDirectory(input.toFile(), "genre", 2);
+        assertThat(first.cachedFileCount()).isZero();
+        assertThat(first.bookCount()).isEqualTo(2);
+
+        Files.writeString(input.resolve("b.json"), """
+            [{"title":"B","author":"Y","genre":"Fiction"},{"title":"C","author":"Z","genre":"Poetry"}]
+            """);
+        Files.writeString(input.resolve("c.json"), """
+            [{"title":"D","author":"W","genre":"Fiction"}]
+            """);
+
+        var second = caching.processDirectory(input.toFile(), "genre", 2);
+
+        assertThat(second.cachedFileCount()).isEqualTo(1);
+        assertThat(second.bookCount()).isEqualTo(4);
+        assertThat(second.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Fiction", 3L), tuple("Poetry", 1L));
+
+        // a touched file with the same content is recognised by its checksum
+        Files.setLastModifiedTime(input.resolve("a.json"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        var third = caching.processDirectory(input.toFile(), "genre", 2);
+        assertThat(third.cachedFileCount()).isEqualTo(3);
+        assertThat(third.statistics()).isEqualTo(second.statistics());
+
+        // entries built for other attributes are not reused
+        var authors = caching.processDirectory(input.toFile(), "author", 2);
+        assertThat(authors.cachedFileCount()).isZero();
+        assertThat(authors.statistics()).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("Should cache values longer than 64 KB")
+    void testCacheLongValues() throws Exception {
+        Path input = Files.createDirectory(tempDir.resolve("input"));
+        String longTitle = "\u00e9".repeat(40_000);
+        Files.writeString(input.resolve("a.json"),
+                "[{\"title\":\"" + longTitle + "\"},{\"title\":\"Short\"}]");
+        StatisticsService caching = new StatisticsService(new BookJsonParser());
+        caching.setCacheDirectory(tempDir.resolve("cache").toFile());
+
+        var first = caching.processDirectory(input.toFile(), "title", 1);
+        var second = caching.processDirectory(input.toFile(), "title", 1);
+
+        assertThat(second.cachedFileCount()).isEqualTo(1);
+        assertThat(second.statistics()).isEqualTo(first.statistics()).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Should cache the whole-file partial of a split file")
+    void testCacheWithSplitFile() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) json.append(",");
+            json.append("{\"title\":\"T\",\"author\":\"A").append(i % 4).append("\"}");
+        }
+        json.append("]");
+        Path input = Files.createDirectory(tempDir.resolve("input"));
+        Files.writeString(input.resolve("big.json"), json.toString());
+
+        StatisticsService caching = new StatisticsService(new BookJsonParser());
+        caching.setCacheDirectory(tempDir.resolve("cache").toFile());
+        caching.setSplitChunkBytes(512);
+
+        var first = caching.processDirectory(input.toFile(), "author", 4);
+        var second = caching.processDirectory(input.toFile(), "author", 4);
+
+        assertThat(second.cachedFileCount()).isEqualTo(1);
+        assertThat(second.bookCount()).isEqualTo(200);
+        assertThat(second.statistics()).isEqualTo(first.statistics());
+    }
+    // endregion
+
+    // region Watch mode
+    @Test
+    @DisplayName("Watch mode should parse only changed files and keep running totals")
+    void testWatchModeUpdatesRunningCounts() throws Exception {
+        Files.writeString(tempDir.resolve("a.json"), """
+            [{"title":"A","author":"X","genre":"Fiction"}]
+            """);
+        BlockingQueue<Map<String, StatisticsService.StatisticsResult>> updates = new LinkedBlockingQueue<>();
+        StatisticsWatcher watcher = new StatisticsWatcher(service, tempDir.toFile(), List.of("genre"),
+                Duration.ofMillis(100), 2);
+        watcher.setListener(updates::add);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            var initial = updates.poll(10, TimeUnit.SECONDS);
+            assertThat(initial).isNotNull();
+            assertThat(initial.get("genre").statistics())
+                    .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                    .containsExactly(tuple("Fiction", 1L));
+
+            Files.writeString(tempDir.resolve("a.json"), """
+                [{"title":"A","author":"X","genre":"Drama"}]
+                """);
+            Files.writeString(tempDir.resolve("b.json"), """
+                [{"title":"B","author":"Y","genre":"Drama"}]
+                """);
+
+            StatisticsService.StatisticsResult latest = null;
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (System.currentTimeMillis() < deadline) {
+                var update = updates.poll(1, TimeUnit.SECONDS);
+                if (update != null) latest = update.get("genre");
+                if (latest != null && latest.fileCount() == 2 && latest.bookCount() == 2
+                        && latest.statistics().size() == 1) break;
+            }
+            assertThat(latest).isNotNull();
+            assertThat(latest.statistics())
+                    .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                    .containsExactly(tuple("Drama", 2L));
+        } finally {
+            watcher.close();
+            thread.join(10_000);
+        }
+    }
+    // endregion
+
+    // region Off-heap counting
+    @Test
+    @DisplayName("Should count exactly in the off-heap table, including growth and non-ASCII keys")
+    void testOffHeapCounting() throws Exception {
+        for (int f = 0; f < 4; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 3000; i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"Title ").append(i)
+                        .append("\",\"author\":\"").append(i % 2 == 0 ? "ÉMILE" : "émile").append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        service.setOffHeap(true);
+        service.setProjection(true);
+
+        var results = service.processDirectory(tempDir.toFile(), List.of("title", "author"), 4);
+
+        var titles = results.get("title");
+        assertThat(titles.statistics()).hasSize(3000).allMatch(item -> item.getCount() == 4);
+        assertThat(titles.statistics().get(0).getValue()).isEqualTo("Title 0");
+        assertThat(results.get("author").statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Émile", 12000L));
+    }
+    // endregion
+
+    // region Spill to disk
+    @Test
+    @DisplayName("Should spill to disk and still write exact counts in the usual order")
+    void testSpillToDisk() throws Exception {
+        for (int f = 0; f < 4; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 2000; i++) {
+                String title = i % 4 == 0 ? "Common" : "Title " + (i * 7 + f) % 1500;
+                json.append(i > 0 ? "," : "").append("{\"title\":\"").append(title).append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        var exact = service.processDirectory(tempDir.toFile(), "title", 4);
+        String exactXml = Files.readString(exact.outputFile().toPath());
+        assertThat(exactXml).doesNotContain("distinct=");
+
+        Path spillDir = Files.createDirectory(tempDir.resolve("spill"));
+        service.setSpillThreshold(50);
+        service.setSpillDirectory(spillDir.toFile());
+        var spilled = service.processDirectory(tempDir.toFile(), "title", 4);
+
+        assertThat(Files.readString(spilled.outputFile().toPath())).isEqualTo(exactXml);
+        assertThat(spilled.distinctCount()).isEqualTo(exact.distinctCount());
+        assertThat(spilled.statistics()).hasSize(50).isEqualTo(exact.statistics().subList(0, 50));
+        try (var left = Files.list(spillDir)) {
+            assertThat(left).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Should reuse cached statistics of files counted with spilling")
+    void testSpillWithCache() throws Exception {
+        for (int f = 0; f < 2; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 1000; i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"Title ").append(i % 300)
+                        .append("\",\"genre\":\"G").append(i % 120).append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        service.setSpillThreshold(50);
+        service.setSpillDirectory(Files.createDirectory(tempDir.resolve("spill")).toFile());
+        service.setCacheDirectory(tempDir.resolve("cache").toFile());
+
+        var first = service.processDirectory(tempDir.toFile(), List.of("title", "genre"), 2);
+        var second = service.processDirectory(tempDir.toFile(), List.of("title", "genre"), 2);
+
+        assertThat(second.get("title").cachedFileCount()).isEqualTo(2);
+        assertThat(second.get("title").distinctCount()).isEqualTo(300);
+        assertThat(second.get("genre").distinctCount()).isEqualTo(120);
+        assertThat(Files.readString(second.get("title").outputFile().toPath()))
+                .isEqualTo(Files.readString(first.get("title").outputFile().toPath()));
+    }
+    // endregion
+
+    // region Approximate counting
+    @Test
+    @DisplayName("Should report the most frequent values within bounded memory and an error bound")
+    void testHeavyHitters() throws Exception {
+        for (int f = 0; f < 8; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 300; i++) {
+                String author = i % 3 == 0 ? "Popular" : i % 5 == 0 ? "Known" : "Author " + f + "-" + i;
+                json.append(i > 0 ? "," : "").append("{\"title\":\"T\",\"author\":\"").append(author).append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        service.setHeavyHitterCapacity(16);
+
+        var result = service.processDirectory(tempDir.toFile(), "author", 4);
+
+        assertThat(result.bookCount()).isEqualTo(2400);
+        assertThat(result.statistics()).hasSizeLessThanOrEqualTo(16);
+        assertThat(result.maxCountError()).isPositive();
+        assertThat(result.statistics()).extracting(StatisticsItem::getValue).startsWith("Popular", "Known");
+        assertThat(result.statistics().get(0).getCount())
+                .isBetween(800L, 800L + result.maxCountError());
+        assertThat(result.statistics().get(1).getCount())
+                .isBetween(320L, 320L + result.maxCountError());
+    }
+
+    @Test
+    @DisplayName("Should report exact counts when the heavy-hitter capacity is not exceeded")
+    void testHeavyHittersWithinCapacityAreExact() throws Exception {
+        Files.writeString(tempDir.resolve("books.json"), """
+            [
+              {"title":"A","author":"X","genre":"Fiction, Drama"},
+              {"title":"B","author":"Y","genre":"fiction"}
+            ]
+            """);
+        service.setHeavyHitterCapacity(10);
+
+        var result = service.processDirectory(tempDir.toFile(), "genre", 2);
+
+        assertThat(result.maxCountError()).isZero();
+        assertThat(result.statistics())
+                .extracting(StatisticsItem::getValue, StatisticsItem::getCount)
+                .containsExactly(tuple("Fiction", 2L), tuple("Drama", 1L));
+    }
+
+    @Test
+    @DisplayName("Should estimate distinct values without keeping counts")
+    void testDistinctCountOnly() throws Exception {
+        for (int f = 0; f < 4; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 5000; i++) {
+                json.append(i > 0 ? "," : "").append("{\"title\":\"Title ").append(i % 3000).append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        service.setDistinctCountOnly(true);
+
+        var result = service.processDirectory(tempDir.toFile(), "title", 4);
+
+        assertThat(result.bookCount()).isEqualTo(20000);
+        assertThat(result.statistics()).isEmpty();
+        assertThat(result.distinctCount()).isBetween(2900L, 3100L);
+        assertThat(Files.readString(result.outputFile().toPath()))
+                .contains("distinct=\"" + result.distinctCount() + "\"");
+    }
+
+    @Test
+    @DisplayName("Should extrapolate counts from a sample of files with confidence intervals")
+    void testSampling() throws Exception {
+        for (int f = 0; f < 40; f++) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 100; i++) {
+                String author = i % 2 == 0 ? "Popular" : "Author " + f + "-" + i;
+                json.append(i > 0 ? "," : "").append("{\"title\":\"T\",\"author\":\"").append(author).append("\"}");
+            }
+            Files.writeString(tempDir.resolve("books" + f + ".json"), json.append("]").toString());
+        }
+        service.setSampleFraction(0.5);
+        service.setSampleSeed(42);
+
+        var result = service.processDirectory(tempDir.toFile(), "author", 4);
+        var again = service.processDirectory(tempDir.toFile(), "author", 4);
+
+        assertThat(result.sampleFraction()).isEqualTo(0.5);
+        assertThat(result.bookCount()).isPositive().isLessThan(4000).isEqualTo(again.bookCount());
+        StatisticsItem popular = result.statistics().get(0);
+        assertThat(popular.getValue()).isEqualTo("Popular");
+        assertThat(popular.getCount()).isEqualTo(result.bookCount());
+        assertThat(popular.hasInterval()).isTrue();
+        assertThat(2000L).isBetween(popular.getLowerBound(), popular.getUpperBound());
+        assertThat(Files.readString(result.outputFile().toPath()))
+                .contains("<count lower=\"" + popular.getLowerBound() + "\" upper=\"" + popular.getUpperBound() + "\">");
+    }
+    // endregion
+
     // region Edge cases
     @Test
     @DisplayName("Should return empty statistics for empty directory")